@@ -0,0 +1,43 @@
+package net.louislam.android;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+
+public interface BatchEncoder {
+
+	/**
+	 * Repeated form fields, in PHP you can read them by $_POST["events"][0]["key"]
+	 */
+	BatchEncoder FORM = events -> {
+		var builder = new FormBody.Builder();
+
+		for (int i = 0; i < events.size(); i++) {
+			for (Map.Entry<String, String> entry : events.get(i).entrySet()) {
+				builder.add("events[" + i + "][" + entry.getKey() + "]", entry.getValue());
+			}
+		}
+		return builder.build();
+	};
+
+	/**
+	 * JSON array of objects, e.g. [{"key":"value"},{"key":"value"}]
+	 */
+	BatchEncoder JSON = events -> {
+		var array = new JSONArray();
+
+		for (Map<String, String> event : events) {
+			array.put(new JSONObject(event));
+		}
+		return RequestBody.create(array.toString(), MediaType.get("application/json; charset=utf-8"));
+	};
+
+	public RequestBody encode(List<Map<String, String>> events) throws IOException;
+}
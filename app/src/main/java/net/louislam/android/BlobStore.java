@@ -0,0 +1,336 @@
+package net.louislam.android;
+
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+/**
+ * Large values of LStorage, one file per value.
+ * The store keeps a reference "[REF_PREFIX][file name]", and the values are read through a byte-bounded LRU cache.
+ * A file name is [md5 of key]-[unique id], a new value is a new file, so a reference never points to a half-written one.
+ * A new file is written by commit() before the reference, or in the background after apply(), and it is read from memory
+ * until then. A replaced file is deleted once its transaction is written, or when the store is opened if nothing points to it.
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+class BlobStore {
+
+	/**
+	 * Printable, so it can be saved in the XML of SharedPreferences.
+	 * A small value which starts with it is stored as a file too, so it is never read as a reference.
+	 */
+	static final String REF_PREFIX = "lstorage-blob:";
+
+	private static final String STRING_EXTENSION = ".txt";
+	private static final String SET_EXTENSION = ".set";
+	private static final String PACKED_EXTENSION = ".pak";
+
+	private static final AtomicLong counter = new AtomicLong();
+
+	private static int cacheSize = 1024 * 1024;
+	private static LruCache<String, Object> cache;
+
+	private static ExecutorService writeExecutor;
+
+	private final File dir;
+
+	/**
+	 * File name to the value of an added file which is not written yet
+	 */
+	private final Map<String, Object> pending = new HashMap<>();
+	private final Object writeLock = new Object();
+
+	BlobStore(File dir) {
+		this.dir = dir;
+	}
+
+	static synchronized void setCacheSize(int bytes) {
+		cacheSize = bytes;
+		cache = null;
+	}
+
+	private static synchronized LruCache<String, Object> getCache() {
+		if (cache == null) {
+			cache = new LruCache<String, Object>(cacheSize) {
+				@Override
+				protected int sizeOf(String key, Object value) {
+					return sizeOfValue(value);
+				}
+			};
+		}
+		return cache;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int sizeOfValue(Object value) {
+		if (value instanceof String) {
+			return ((String) value).length() * 2;
+		}
+
+		int size = 0;
+
+		for (String item : (Set<String>) value) {
+			size += item.length() * 2 + 32;
+		}
+		return size;
+	}
+
+	static boolean isRef(String value) {
+		return value != null && value.startsWith(REF_PREFIX);
+	}
+
+	static boolean isPackedRef(String ref) {
+		return ref.endsWith(PACKED_EXTENSION);
+	}
+
+	static boolean isRef(Set<String> value) {
+		return value != null && value.size() == 1 && isRef(value.iterator().next());
+	}
+
+	/**
+	 * Add a value, its file is written later by writePending(). Until then it is read from memory.
+	 *
+	 * @param key
+	 * @param value
+	 * @return the reference to store
+	 */
+	String add(String key, String value) {
+		return addPending(newName(key, STRING_EXTENSION), value);
+	}
+
+	/**
+	 * @param key
+	 * @param encoded a packed array or list in Base64
+	 * @return the reference to store, isPackedRef() is true for it
+	 */
+	String addPacked(String key, String encoded) {
+		return addPending(newName(key, PACKED_EXTENSION), encoded);
+	}
+
+	String add(String key, Set<String> value) {
+		return addPending(newName(key, SET_EXTENSION), new HashSet<>(value));
+	}
+
+	private String addPending(String name, Object value) {
+		synchronized (pending) {
+			pending.put(name, value);
+		}
+
+		getCache().put(name, value);
+		return REF_PREFIX + name;
+	}
+
+	/**
+	 * Write and sync the files of all added values, don't call it on the main thread
+	 *
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	void writePending() throws IOException {
+		synchronized (writeLock) {
+			List<Map.Entry<String, Object>> entries;
+
+			synchronized (pending) {
+				entries = new ArrayList<>(pending.entrySet());
+			}
+
+			if (entries.isEmpty()) {
+				return;
+			}
+
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create " + dir);
+			}
+
+			for (Map.Entry<String, Object> entry : entries) {
+				try (FileOutputStream out = new FileOutputStream(new File(dir, entry.getKey()))) {
+					BufferedSink sink = Okio.buffer(Okio.sink(out));
+
+					if (entry.getValue() instanceof String) {
+						sink.writeUtf8((String) entry.getValue());
+					} else {
+						Set<String> set = (Set<String>) entry.getValue();
+						sink.writeInt(set.size());
+
+						for (String item : set) {
+							ByteString bytes = ByteString.encodeUtf8(item);
+							sink.writeInt(bytes.size());
+							sink.write(bytes);
+						}
+					}
+
+					sink.flush();
+					out.getFD().sync();
+				}
+
+				// Removed after the file is complete, so a reader finds the value in one of them
+				synchronized (pending) {
+					pending.remove(entry.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run a task on the thread which writes the files of apply()
+	 *
+	 * @param task
+	 */
+	static synchronized void execute(Runnable task) {
+		if (writeExecutor == null) {
+			writeExecutor = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "L-storage-blob");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		writeExecutor.execute(task);
+	}
+
+	private Object getPending(String name) {
+		synchronized (pending) {
+			return pending.get(name);
+		}
+	}
+
+	/**
+	 * @param ref
+	 * @return the value, null if the file is missing
+	 */
+	String readString(String ref) {
+		String name = ref.substring(REF_PREFIX.length());
+		Object value = getCache().get(name);
+
+		if (value == null) {
+			value = getPending(name);
+		}
+
+		if (value == null) {
+			try (BufferedSource source = Okio.buffer(Okio.source(new File(dir, name)))) {
+				value = source.readUtf8();
+			} catch (IOException e) {
+				L.log("LStorage: " + e);
+				return null;
+			}
+			getCache().put(name, value);
+		}
+		return (String) value;
+	}
+
+	@SuppressWarnings("unchecked")
+	Set<String> readSet(String ref) {
+		String name = ref.substring(REF_PREFIX.length());
+		Object value = getCache().get(name);
+
+		if (value == null) {
+			value = getPending(name);
+		}
+
+		if (value == null) {
+			try (BufferedSource source = Okio.buffer(Okio.source(new File(dir, name)))) {
+				int count = source.readInt();
+				var set = new HashSet<String>(count * 2);
+
+				for (int i = 0; i < count; i++) {
+					set.add(source.readUtf8(source.readInt()));
+				}
+				value = set;
+			} catch (IOException e) {
+				L.log("LStorage: " + e);
+				return null;
+			}
+			getCache().put(name, value);
+		}
+		return (Set<String>) value;
+	}
+
+	/**
+	 * @param ref
+	 * @return the UTF-8 bytes of a String value, mapped read-only
+	 * @throws IOException
+	 */
+	ByteBuffer map(String ref) throws IOException {
+		String name = ref.substring(REF_PREFIX.length());
+		Object value = getPending(name);
+
+		if (value instanceof String) {
+			// The file is not written yet
+			return ByteBuffer.wrap(((String) value).getBytes(LogStorage.UTF_8)).asReadOnlyBuffer();
+		}
+
+		File file = new File(dir, name);
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+	}
+
+	/**
+	 * Delete the files of the references, e.g. the values replaced by a committed transaction
+	 *
+	 * @param refs
+	 */
+	void delete(Collection<String> refs) {
+		for (String ref : refs) {
+			String name = ref.substring(REF_PREFIX.length());
+
+			synchronized (pending) {
+				pending.remove(name);
+			}
+
+			getCache().remove(name);
+			new File(dir, name).delete();
+		}
+	}
+
+	/**
+	 * Delete the files that none of liveRefs points to.
+	 * Only call it when no transaction is writing, a new file is not referenced until the transaction is written.
+	 *
+	 * @param liveRefs
+	 */
+	void deleteUnreferenced(Collection<String> liveRefs) {
+		File[] files = dir.listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			if (!liveRefs.contains(REF_PREFIX + file.getName())) {
+				getCache().remove(file.getName());
+				file.delete();
+			}
+		}
+	}
+
+	private static String newName(String key, String extension) {
+		String id = Long.toString(System.currentTimeMillis(), 36) + Long.toString(counter.incrementAndGet(), 36);
+		return keyHash(key) + "-" + id + extension;
+	}
+
+	private static String keyHash(String key) {
+		return ByteString.encodeUtf8(key).md5().hex();
+	}
+
+}
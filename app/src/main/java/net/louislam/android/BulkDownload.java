@@ -0,0 +1,345 @@
+package net.louislam.android;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * BulkDownload - Download many files with global and per-host concurrency limits
+ * <p/>
+ * Identical URLs are downloaded once. Files that are already present and valid are skipped.
+ * <p/>
+ * Example Usage:
+ * new BulkDownload()
+ * .maxConcurrency(8)
+ * .maxPerHost(4)
+ * .add("https://example.com/a.png", fileA)
+ * .add("https://example.com/b.png", fileB)
+ * .start((done, total) -> { }, callback);
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class BulkDownload {
+
+	/**
+	 * Decide whether an existing file can be skipped
+	 */
+	public interface Validator {
+		public boolean isValid(String url, File file);
+	}
+
+	private static class Job {
+		String url;
+		HttpUrl httpUrl;
+		String host;
+		List<File> files = new ArrayList<>();
+		Call call;
+	}
+
+	private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+	private final List<Job> queue = new ArrayList<>();
+	private final Map<String, Integer> runningByHost = new HashMap<>();
+
+	private int maxConcurrency = 8;
+	private int maxPerHost = 4;
+	private Validator validator = (url, file) -> file.exists() && file.length() > 0;
+
+	private ExecutorService executor;
+	private ProgressCallback progress;
+	private BulkDownloadCallback callback;
+	private int running = 0;
+	private int total = 0;
+	private int succeeded = 0;
+	private int failed = 0;
+	private boolean started = false;
+
+	/**
+	 * Held while the callbacks of a finished item run, so they are called in order, without the lock of this
+	 */
+	private final Object callbackLock = new Object();
+
+	public BulkDownload maxConcurrency(int value) {
+		maxConcurrency = value;
+		return this;
+	}
+
+	public BulkDownload maxPerHost(int value) {
+		maxPerHost = value;
+		return this;
+	}
+
+	/**
+	 * Default: the file exists and is not empty
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public BulkDownload validator(Validator value) {
+		validator = value;
+		return this;
+	}
+
+	/**
+	 * Add a job, if the URL is already added (compared after parsing), the file gets a copy of the same download.
+	 * A job with an invalid URL is reported as a failed item after start().
+	 *
+	 * @param url
+	 * @param file
+	 * @return this
+	 */
+	public synchronized BulkDownload add(String url, File file) {
+		HttpUrl httpUrl = HttpUrl.parse(url);
+		String id = (httpUrl == null) ? url : httpUrl.toString();
+		Job job = jobs.get(id);
+
+		if (job == null) {
+			job = new Job();
+			job.url = url;
+			job.httpUrl = httpUrl;
+			job.host = (httpUrl == null) ? "" : httpUrl.host();
+			jobs.put(id, job);
+		}
+
+		job.files.add(file);
+		return this;
+	}
+
+	/**
+	 * Start downloading in the background, it only runs once
+	 *
+	 * @param progress (done files, total files), can be null
+	 * @param callback can be null
+	 * @return this
+	 */
+	public BulkDownload start(ProgressCallback progress, BulkDownloadCallback callback) {
+		List<Job> toSkip = new ArrayList<>();
+		List<Job> toFail = new ArrayList<>();
+
+		synchronized (this) {
+			if (started) {
+				return this;
+			}
+
+			started = true;
+			this.progress = progress;
+			this.callback = callback;
+			this.executor = Executors.newFixedThreadPool(Math.max(1, maxConcurrency), r -> {
+				var t = new Thread(r, "L-bulk");
+				t.setDaemon(true);
+				return t;
+			});
+
+			for (Job job : jobs.values()) {
+				total += job.files.size();
+
+				if (job.httpUrl == null) {
+					toFail.add(job);
+				} else if (allValid(job)) {
+					toSkip.add(job);
+				} else {
+					queue.add(job);
+				}
+			}
+		}
+
+		if (total == 0 && callback != null) {
+			callback.onDone(0, 0);
+		}
+
+		for (Job job : toSkip) {
+			for (File file : job.files) {
+				finishItem(job.url, file, true, null);
+			}
+		}
+
+		for (Job job : toFail) {
+			for (File file : job.files) {
+				finishItem(job.url, file, false, new IOException("Invalid URL: " + job.url));
+			}
+		}
+
+		promote();
+		return this;
+	}
+
+	/**
+	 * Cancel all queued and running downloads
+	 */
+	public void cancel() {
+		List<Job> toCancel = new ArrayList<>();
+		List<Job> queued;
+
+		synchronized (this) {
+			for (Job job : jobs.values()) {
+				if (job.call != null) {
+					toCancel.add(job);
+				}
+			}
+
+			queued = new ArrayList<>(queue);
+			queue.clear();
+		}
+
+		for (Job job : queued) {
+			for (File file : job.files) {
+				finishItem(job.url, file, false, new IOException("Canceled"));
+			}
+		}
+
+		for (Job job : toCancel) {
+			job.call.cancel();
+		}
+	}
+
+	private boolean allValid(Job job) {
+		for (File file : job.files) {
+			if (!validator.isValid(job.url, file)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Start queued jobs while there are free slots, a job is skipped if its host is busy
+	 */
+	private void promote() {
+		List<Job> toStart = new ArrayList<>();
+
+		synchronized (this) {
+			Iterator<Job> it = queue.iterator();
+
+			while (it.hasNext() && running < maxConcurrency) {
+				Job job = it.next();
+				int hostRunning = runningByHost.containsKey(job.host) ? runningByHost.get(job.host) : 0;
+
+				if (hostRunning >= maxPerHost) {
+					continue;
+				}
+
+				it.remove();
+				running++;
+				runningByHost.put(job.host, hostRunning + 1);
+				job.call = L.getHttpClient().newCall(new Request.Builder().url(job.httpUrl).build());
+				toStart.add(job);
+			}
+
+			if (running == 0 && queue.isEmpty() && executor != null) {
+				executor.shutdown();
+			}
+		}
+
+		for (Job job : toStart) {
+			executor.execute(() -> run(job));
+		}
+	}
+
+	private void run(Job job) {
+		Exception error = null;
+
+		try {
+			download(job);
+		} catch (IOException | RuntimeException e) {
+			error = e;
+		}
+
+		synchronized (this) {
+			running--;
+			runningByHost.put(job.host, runningByHost.get(job.host) - 1);
+		}
+
+		for (File file : job.files) {
+			finishItem(job.url, file, false, error);
+		}
+
+		promote();
+	}
+
+	private void download(Job job) throws IOException {
+		File first = job.files.get(0);
+		File tmp = new File(first.getPath() + ".tmp");
+
+		try (Response response = job.call.execute()) {
+			ResponseBody body = response.body();
+
+			if (!response.isSuccessful() || body == null) {
+				throw new IOException("Unexpected response: " + response.code());
+			}
+
+			try (BufferedSink sink = Okio.buffer(Okio.sink(tmp))) {
+				sink.writeAll(body.source());
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+
+		if (!tmp.renameTo(first)) {
+			first.delete();
+
+			if (!tmp.renameTo(first)) {
+				tmp.delete();
+				throw new IOException("Cannot rename " + tmp + " to " + first);
+			}
+		}
+
+		// Same URL, other files get a copy
+		for (int i = 1; i < job.files.size(); i++) {
+			try (BufferedSink sink = Okio.buffer(Okio.sink(job.files.get(i))); Source source = Okio.source(first)) {
+				sink.writeAll(source);
+			}
+		}
+	}
+
+	/**
+	 * Count an item and run the callbacks, must not be called while holding the lock of this
+	 */
+	private void finishItem(String url, File file, boolean skipped, Exception e) {
+		synchronized (callbackLock) {
+			int doneSucceeded;
+			int doneFailed;
+			int doneTotal;
+
+			synchronized (this) {
+				if (e == null) {
+					succeeded++;
+				} else {
+					failed++;
+				}
+
+				doneSucceeded = succeeded;
+				doneFailed = failed;
+				doneTotal = total;
+			}
+
+			if (callback != null) {
+				callback.onItem(url, file, skipped, e);
+			}
+
+			if (progress != null) {
+				progress.onProgress(doneSucceeded + doneFailed, doneTotal);
+			}
+
+			if (doneSucceeded + doneFailed == doneTotal && callback != null) {
+				callback.onDone(doneSucceeded, doneFailed);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,24 @@
+package net.louislam.android;
+
+import java.io.File;
+
+public interface BulkDownloadCallback {
+
+	/**
+	 * Called for each job, on a background thread
+	 *
+	 * @param url
+	 * @param file
+	 * @param skipped true if the file was already present and valid
+	 * @param e       null if it is successful
+	 */
+	public void onItem(String url, File file, boolean skipped, Exception e);
+
+	/**
+	 * Called once after all jobs are finished or cancelled
+	 *
+	 * @param succeeded including skipped files
+	 * @param failed
+	 */
+	public void onDone(int succeeded, int failed);
+}
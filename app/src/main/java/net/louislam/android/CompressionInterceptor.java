@@ -0,0 +1,83 @@
+package net.louislam.android;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Gzip form and JSON request bodies larger than a threshold.
+ * Other bodies (e.g. file uploads, multipart) are sent as they are, the server may not expect them compressed.
+ * <p/>
+ * Gzip responses are already negotiated and decompressed as a stream by OkHttp.
+ * Brotli is added by brotliInterceptor() if "com.squareup.okhttp3:okhttp-brotli" is in the app's dependencies.
+ */
+class CompressionInterceptor implements Interceptor {
+
+	private final long minBytes;
+
+	CompressionInterceptor(long minBytes) {
+		this.minBytes = minBytes;
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		RequestBody body = request.body();
+
+		if (body == null || request.header("Content-Encoding") != null) {
+			return chain.proceed(request);
+		}
+
+		long length = body.contentLength();
+
+		// Unknown length (e.g. a stream) is not compressed, it may be a one-shot body
+		if (length < 0 || length < minBytes || body.isOneShot() || !isCompressible(body.contentType())) {
+			return chain.proceed(request);
+		}
+
+		return chain.proceed(request.newBuilder()
+				.header("Content-Encoding", "gzip")
+				.method(request.method(), new GzipRequestBody(body))
+				.build());
+	}
+
+	/**
+	 * @return true for form and JSON bodies
+	 */
+	private static boolean isCompressible(MediaType type) {
+		if (type == null) {
+			return false;
+		}
+
+		String subtype = type.subtype();
+		return subtype.equals("x-www-form-urlencoded") || subtype.equals("json") || subtype.endsWith("+json");
+	}
+
+	/**
+	 * @return okhttp3.brotli.BrotliInterceptor, null if okhttp-brotli is not available.
+	 * It is skipped for Range requests, a range of a compressed body is not usable, as OkHttp does for gzip.
+	 */
+	static Interceptor brotliInterceptor() {
+		Interceptor brotli;
+
+		try {
+			brotli = (Interceptor) Class.forName("okhttp3.brotli.BrotliInterceptor").getField("INSTANCE").get(null);
+		} catch (ClassNotFoundException | NoSuchFieldException | IllegalAccessException | ClassCastException e) {
+			return null;
+		}
+
+		return chain -> {
+			Request request = chain.request();
+
+			if (request.header("Range") != null || request.header("Accept-Encoding") != null) {
+				return chain.proceed(request);
+			}
+			return brotli.intercept(chain);
+		};
+	}
+
+}
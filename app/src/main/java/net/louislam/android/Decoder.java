@@ -0,0 +1,38 @@
+package net.louislam.android;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+import okhttp3.ResponseBody;
+
+/**
+ * Decode a response body on a background thread.
+ * For POJOs, implement it with your JSON library, e.g. gson.fromJson(body.charStream(), User.class)
+ */
+public interface Decoder<T> {
+
+	Decoder<String> STRING = ResponseBody::string;
+
+	Decoder<byte[]> BYTES = ResponseBody::bytes;
+
+	Decoder<JSONObject> JSON_OBJECT = body -> {
+		try {
+			return new JSONObject(body.string());
+		} catch (JSONException e) {
+			throw new IOException(e);
+		}
+	};
+
+	Decoder<JSONArray> JSON_ARRAY = body -> {
+		try {
+			return new JSONArray(body.string());
+		} catch (JSONException e) {
+			throw new IOException(e);
+		}
+	};
+
+	public T decode(ResponseBody body) throws IOException;
+}
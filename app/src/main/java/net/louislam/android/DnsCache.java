@@ -0,0 +1,81 @@
+package net.louislam.android;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Dns;
+
+/**
+ * DnsCache - In-memory DNS cache with TTL
+ * <p/>
+ * Example Usage:
+ * L.setHttpConfig(new HttpConfig().dns(new DnsCache(5 * 60 * 1000)));
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class DnsCache implements Dns {
+
+	private static class Entry {
+		final List<InetAddress> addresses;
+		final long expiresAt;
+
+		Entry(List<InetAddress> addresses, long expiresAt) {
+			this.addresses = addresses;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final Dns delegate;
+	private final long ttlMs;
+
+	/**
+	 * @param ttlMs how long a result is kept
+	 */
+	public DnsCache(long ttlMs) {
+		this(Dns.SYSTEM, ttlMs);
+	}
+
+	/**
+	 * @param delegate the Dns that actually resolves, e.g. a DNS over HTTPS client
+	 * @param ttlMs    how long a result is kept
+	 */
+	public DnsCache(Dns delegate, long ttlMs) {
+		this.delegate = delegate;
+		this.ttlMs = ttlMs;
+	}
+
+	@NotNull
+	@Override
+	public List<InetAddress> lookup(@NotNull String hostname) throws UnknownHostException {
+		long now = System.currentTimeMillis();
+		Entry entry = entries.get(hostname);
+
+		if (entry != null && entry.expiresAt > now) {
+			return entry.addresses;
+		}
+
+		List<InetAddress> addresses = delegate.lookup(hostname);
+		entries.put(hostname, new Entry(addresses, now + ttlMs));
+		return addresses;
+	}
+
+	/**
+	 * Resolve the host now, so a later request doesn't wait for DNS
+	 *
+	 * @param hostname
+	 * @throws UnknownHostException
+	 */
+	public void preResolve(String hostname) throws UnknownHostException {
+		lookup(hostname);
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+}
@@ -0,0 +1,80 @@
+package net.louislam.android;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Stream a file (or a part of it) from disk in chunks, it is never fully loaded into memory
+ */
+class FileRequestBody extends RequestBody {
+
+	private static final long CHUNK_SIZE = 64 * 1024;
+
+	private final File file;
+	private final long offset;
+	private final long length;
+	private final MediaType contentType;
+	private final ProgressTracker progress;
+	private final boolean chunked;
+
+	/**
+	 * @param file
+	 * @param offset      start position in the file
+	 * @param length      bytes to send
+	 * @param contentType
+	 * @param progress    can be null
+	 * @param chunked     hide the length, so it is sent with "Transfer-Encoding: chunked"
+	 */
+	FileRequestBody(File file, long offset, long length, MediaType contentType, ProgressTracker progress, boolean chunked) {
+		this.file = file;
+		this.offset = offset;
+		this.length = length;
+		this.contentType = contentType;
+		this.progress = progress;
+		this.chunked = chunked;
+	}
+
+	@Override
+	public MediaType contentType() {
+		return contentType;
+	}
+
+	@Override
+	public long contentLength() {
+		return chunked ? -1 : length;
+	}
+
+	@Override
+	public void writeTo(BufferedSink sink) throws IOException {
+		try (FileInputStream in = new FileInputStream(file); Source source = Okio.source(in)) {
+			in.getChannel().position(offset);
+
+			Buffer buffer = new Buffer();
+			long remaining = length;
+
+			while (remaining > 0) {
+				long read = source.read(buffer, Math.min(CHUNK_SIZE, remaining));
+
+				if (read == -1) {
+					throw new IOException("File is shorter than expected: " + file);
+				}
+
+				sink.write(buffer, read);
+				remaining -= read;
+
+				if (progress != null) {
+					progress.add(read);
+				}
+			}
+		}
+	}
+
+}
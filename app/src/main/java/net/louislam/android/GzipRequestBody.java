@@ -0,0 +1,40 @@
+package net.louislam.android;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Gzip a request body while it is written, the request needs the header "Content-Encoding: gzip".
+ */
+class GzipRequestBody extends RequestBody {
+
+	private final RequestBody body;
+
+	GzipRequestBody(RequestBody body) {
+		this.body = body;
+	}
+
+	@Override
+	public MediaType contentType() {
+		return body.contentType();
+	}
+
+	@Override
+	public long contentLength() {
+		// Unknown until it is compressed
+		return -1;
+	}
+
+	@Override
+	public void writeTo(BufferedSink sink) throws IOException {
+		BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+		body.writeTo(gzipSink);
+		gzipSink.close();
+	}
+
+}
@@ -0,0 +1,75 @@
+package net.louislam.android;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * HttpCacheStats - Counters of the HTTP response cache
+ * <p/>
+ * Example Usage:
+ * HttpCacheStats stats = L.getHttpCacheStats();
+ * L.log("Hit: " + stats.getHitCount() + ", Miss: " + stats.getMissCount());
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class HttpCacheStats implements Interceptor {
+
+	private final AtomicLong hit = new AtomicLong();
+	private final AtomicLong miss = new AtomicLong();
+	private final AtomicLong revalidation = new AtomicLong();
+
+	/**
+	 * @return Responses served from the cache without network
+	 */
+	public long getHitCount() {
+		return hit.get();
+	}
+
+	/**
+	 * @return Responses fetched from the network
+	 */
+	public long getMissCount() {
+		return miss.get();
+	}
+
+	/**
+	 * @return Responses served from the cache after the server returned 304 Not Modified
+	 */
+	public long getRevalidationCount() {
+		return revalidation.get();
+	}
+
+	public void reset() {
+		hit.set(0);
+		miss.set(0);
+		revalidation.set(0);
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Response response = chain.proceed(chain.request());
+
+		Response networkResponse = response.networkResponse();
+
+		if (networkResponse == null) {
+			if (response.cacheResponse() != null) {
+				hit.incrementAndGet();
+			}
+		} else if (response.cacheResponse() != null && networkResponse.code() == 304) {
+			revalidation.incrementAndGet();
+		} else {
+			// Including a conditional request which got 200, the cached copy is replaced
+			miss.incrementAndGet();
+		}
+		return response;
+	}
+
+	@Override
+	public String toString() {
+		return "hit=" + hit + ", miss=" + miss + ", revalidation=" + revalidation;
+	}
+
+}
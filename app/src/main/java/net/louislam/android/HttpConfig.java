@@ -0,0 +1,196 @@
+package net.louislam.android;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.Cache;
+import okhttp3.Dns;
+import okhttp3.Protocol;
+
+/**
+ * HttpConfig - Settings of the shared HTTP client used by L.get(), L.getAsync(), L.postAsync() and L.downloadFile()
+ * <p/>
+ * Example Usage:
+ * L.setHttpConfig(new HttpConfig()
+ * .maxIdleConnections(10)
+ * .maxRequestsPerHost(8)
+ * .readTimeout(30000));
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class HttpConfig {
+
+	int maxIdleConnections = 5;
+	long keepAliveMs = 5 * 60 * 1000;
+	int maxRequests = 64;
+	int maxRequestsPerHost = 5;
+	long connectTimeoutMs = 10000;
+	long readTimeoutMs = 10000;
+	long writeTimeoutMs = 10000;
+	List<Protocol> protocols = Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1);
+	Cache cache = null;
+	boolean coalesceGets = false;
+	RetryPolicy retryPolicy = null;
+	boolean timing = false;
+	long compressMinBytes = -1;
+	int[] priorityLimits = { 16, 8, 2 };
+	Dns dns = null;
+
+	/**
+	 * Max idle connections kept in the connection pool
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public HttpConfig maxIdleConnections(int value) {
+		maxIdleConnections = value;
+		return this;
+	}
+
+	/**
+	 * How long an idle connection is kept alive
+	 *
+	 * @param ms
+	 * @return this
+	 */
+	public HttpConfig keepAlive(long ms) {
+		keepAliveMs = ms;
+		return this;
+	}
+
+	/**
+	 * Max concurrent async requests
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public HttpConfig maxRequests(int value) {
+		maxRequests = value;
+		return this;
+	}
+
+	/**
+	 * Max concurrent async requests to the same host
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public HttpConfig maxRequestsPerHost(int value) {
+		maxRequestsPerHost = value;
+		return this;
+	}
+
+	public HttpConfig connectTimeout(long ms) {
+		connectTimeoutMs = ms;
+		return this;
+	}
+
+	public HttpConfig readTimeout(long ms) {
+		readTimeoutMs = ms;
+		return this;
+	}
+
+	public HttpConfig writeTimeout(long ms) {
+		writeTimeoutMs = ms;
+		return this;
+	}
+
+	/**
+	 * Protocols to negotiate, must contain HTTP_1_1 (or only H2_PRIOR_KNOWLEDGE)
+	 *
+	 * @param protocols
+	 * @return this
+	 */
+	public HttpConfig protocols(Protocol... protocols) {
+		this.protocols = Arrays.asList(protocols);
+		return this;
+	}
+
+	/**
+	 * Enable the disk cache of responses. It honours Cache-Control, and revalidates with ETag / Last-Modified.
+	 * Old entries are evicted when the size is over maxSize.
+	 *
+	 * @param directory
+	 * @param maxSize in bytes
+	 * @return this
+	 */
+	public HttpConfig cache(File directory, long maxSize) {
+		cache = new Cache(directory, maxSize);
+		return this;
+	}
+
+	/**
+	 * Identical in-flight L.getAsync() calls (same URL and query) share one network call.
+	 * The body is read into memory once and each callback gets a copy, so don't use it for large downloads.
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public HttpConfig coalesceGets(boolean value) {
+		coalesceGets = value;
+		return this;
+	}
+
+	/**
+	 * Retry (and optionally hedge) GET requests of L.get(), L.getAsync() and L.downloadFile()
+	 *
+	 * @param policy null to disable
+	 * @return this
+	 */
+	public HttpConfig retryPolicy(RetryPolicy policy) {
+		retryPolicy = policy;
+		return this;
+	}
+
+	/**
+	 * Record DNS, connect, TLS, TTFB and body read time of each call.
+	 * Read it by HttpTiming.of(response) or L.getHttpTimingStats()
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public HttpConfig timing(boolean value) {
+		timing = value;
+		return this;
+	}
+
+	/**
+	 * Gzip form and JSON request bodies (e.g. L.postAsync()) of at least minBytes, with "Content-Encoding: gzip".
+	 * The server must accept gzip request bodies. File uploads and multipart bodies are not compressed.
+	 * Responses are negotiated with gzip, and brotli if "com.squareup.okhttp3:okhttp-brotli" is added to your app.
+	 *
+	 * @param minBytes -1 to disable (default)
+	 * @return this
+	 */
+	public HttpConfig compression(long minBytes) {
+		compressMinBytes = minBytes;
+		return this;
+	}
+
+	/**
+	 * Max running requests of each Priority, for L.getAsync(context, priority, ...).
+	 * Default: USER_BLOCKING 16, NORMAL 8, PREFETCH 2
+	 *
+	 * @param userBlocking
+	 * @param normal
+	 * @param prefetch
+	 * @return this
+	 */
+	public HttpConfig priorityLimits(int userBlocking, int normal, int prefetch) {
+		priorityLimits = new int[] { userBlocking, normal, prefetch };
+		return this;
+	}
+
+	/**
+	 * Use a custom Dns, e.g. new DnsCache(ttlMs)
+	 *
+	 * @param dns
+	 * @return this
+	 */
+	public HttpConfig dns(Dns dns) {
+		this.dns = dns;
+		return this;
+	}
+
+}
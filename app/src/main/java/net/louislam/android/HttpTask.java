@@ -0,0 +1,123 @@
+package net.louislam.android;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * HttpTask - A running L.getAsync() / L.postAsync() request
+ * <p/>
+ * Example Usage:
+ * HttpTask task = L.getAsync(url, (response, e) -> { });
+ * task.cancel(true);
+ * <p/>
+ * ⚠️ If there is no callback, remember to call response.close() after get()
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class HttpTask implements Future<Response> {
+
+	private final CountDownLatch latch = new CountDownLatch(1);
+	private final Call call;
+	private final Runnable canceller;
+	private volatile Response response;
+	private volatile Exception exception;
+	private volatile boolean cancelled = false;
+
+	HttpTask(Call call) {
+		this(call, null);
+	}
+
+	/**
+	 * @param call
+	 * @param canceller run on cancel() instead of cancelling the call, if the call is shared by other tasks
+	 */
+	HttpTask(Call call, Runnable canceller) {
+		this.call = call;
+		this.canceller = canceller;
+	}
+
+	/**
+	 * @return the underlying call, null if the request could not be created
+	 */
+	public Call getCall() {
+		return call;
+	}
+
+	synchronized boolean complete(Response response, Exception e) {
+		if (isDone()) {
+			return false;
+		}
+
+		this.response = response;
+		this.exception = e;
+		latch.countDown();
+		return true;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (this) {
+			if (isDone()) {
+				return false;
+			}
+
+			cancelled = true;
+			complete(null, new CancellationException());
+		}
+
+		if (canceller != null) {
+			canceller.run();
+		} else if (call != null) {
+			call.cancel();
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return latch.getCount() == 0;
+	}
+
+	@Override
+	public Response get() throws InterruptedException, ExecutionException {
+		latch.await();
+		return result();
+	}
+
+	@Override
+	public Response get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!latch.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	private Response result() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+
+		if (exception != null) {
+			throw new ExecutionException(exception);
+		}
+
+		if (response == null) {
+			throw new ExecutionException(new IOException("No response"));
+		}
+		return response;
+	}
+
+}
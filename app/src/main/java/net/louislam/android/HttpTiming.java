@@ -0,0 +1,100 @@
+package net.louislam.android;
+
+import okhttp3.Response;
+
+/**
+ * HttpTiming - Phase timings of one HTTP call, in ms
+ * <p/>
+ * Enable it with L.setHttpConfig(new HttpConfig().timing(true))
+ * <p/>
+ * Example Usage:
+ * L.getAsync(url, (response, e) -> {
+ * response.body().string();
+ * L.log(HttpTiming.of(response).toString());
+ * });
+ * <p/>
+ * A phase is -1 if it didn't happen, e.g. dns and connect are -1 if the connection is reused.
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class HttpTiming {
+
+	String host;
+	long dnsMs = -1;
+	long connectMs = -1;
+	long tlsMs = -1;
+	long requestWriteMs = -1;
+	long ttfbMs = -1;
+	long bodyReadMs = -1;
+	long totalMs = -1;
+	long bytesOut = 0;
+	long bytesIn = 0;
+	boolean connectionReused = true;
+
+	/**
+	 * @param response
+	 * @return the timing of the response, null if timing is not enabled.
+	 * Body read and total are only available after the body is read.
+	 */
+	public static HttpTiming of(Response response) {
+		return (response == null) ? null : response.request().tag(HttpTiming.class);
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public long getDnsMs() {
+		return dnsMs;
+	}
+
+	/**
+	 * @return TCP connect time, including TLS handshake
+	 */
+	public long getConnectMs() {
+		return connectMs;
+	}
+
+	public long getTlsMs() {
+		return tlsMs;
+	}
+
+	public long getRequestWriteMs() {
+		return requestWriteMs;
+	}
+
+	/**
+	 * @return time from the request is sent to the first byte of the response
+	 */
+	public long getTtfbMs() {
+		return ttfbMs;
+	}
+
+	public long getBodyReadMs() {
+		return bodyReadMs;
+	}
+
+	public long getTotalMs() {
+		return totalMs;
+	}
+
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	public boolean isConnectionReused() {
+		return connectionReused;
+	}
+
+	@Override
+	public String toString() {
+		return host + " dns=" + dnsMs + " connect=" + connectMs + " tls=" + tlsMs + " write=" + requestWriteMs
+				+ " ttfb=" + ttfbMs + " body=" + bodyReadMs + " total=" + totalMs
+				+ " out=" + bytesOut + " in=" + bytesIn + " reused=" + connectionReused;
+	}
+
+}
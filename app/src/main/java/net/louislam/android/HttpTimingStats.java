@@ -0,0 +1,136 @@
+package net.louislam.android;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HttpTimingStats - Aggregated HttpTiming of all calls
+ * <p/>
+ * Each phase has a histogram with power-of-two buckets: bucket 0 is &lt; 1ms, bucket i is [2^(i-1), 2^i) ms,
+ * and the last bucket is everything above.
+ * <p/>
+ * Example Usage:
+ * L.log(L.getHttpTimingStats().toString());
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class HttpTimingStats {
+
+	public static final int BUCKETS = 18;
+
+	public static final String[] PHASES = { "dns", "connect", "tls", "write", "ttfb", "body", "total" };
+
+	public static class HostStats {
+		public long calls;
+		public long failures;
+		public long totalMs;
+		public long newConnections;
+		public long bytesIn;
+		public long bytesOut;
+
+		HostStats copy() {
+			var copy = new HostStats();
+			copy.calls = calls;
+			copy.failures = failures;
+			copy.totalMs = totalMs;
+			copy.newConnections = newConnections;
+			copy.bytesIn = bytesIn;
+			copy.bytesOut = bytesOut;
+			return copy;
+		}
+	}
+
+	private final long[][] histograms = new long[PHASES.length][BUCKETS];
+	private final Map<String, HostStats> hosts = new HashMap<>();
+
+	synchronized void record(HttpTiming timing, boolean failed) {
+		long[] values = { timing.dnsMs, timing.connectMs, timing.tlsMs, timing.requestWriteMs, timing.ttfbMs, timing.bodyReadMs, timing.totalMs };
+
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] >= 0) {
+				histograms[i][bucket(values[i])]++;
+			}
+		}
+
+		var host = hosts.get(timing.host);
+
+		if (host == null) {
+			host = new HostStats();
+			hosts.put(timing.host, host);
+		}
+
+		host.calls++;
+		host.totalMs += Math.max(0, timing.totalMs);
+		host.bytesIn += timing.bytesIn;
+		host.bytesOut += timing.bytesOut;
+
+		if (failed) {
+			host.failures++;
+		}
+
+		if (!timing.connectionReused) {
+			host.newConnections++;
+		}
+	}
+
+	private static int bucket(long ms) {
+		int bucket = 0;
+
+		while (ms > 0 && bucket < BUCKETS - 1) {
+			ms >>= 1;
+			bucket++;
+		}
+		return bucket;
+	}
+
+	/**
+	 * @param phase one of PHASES
+	 * @return a copy of the histogram
+	 */
+	public synchronized long[] getHistogram(String phase) {
+		for (int i = 0; i < PHASES.length; i++) {
+			if (PHASES[i].equals(phase)) {
+				return histograms[i].clone();
+			}
+		}
+		throw new IllegalArgumentException("Unknown phase: " + phase);
+	}
+
+	/**
+	 * @return a copy of the stats by host
+	 */
+	public synchronized Map<String, HostStats> getHostStats() {
+		var copy = new LinkedHashMap<String, HostStats>();
+
+		for (Map.Entry<String, HostStats> entry : hosts.entrySet()) {
+			copy.put(entry.getKey(), entry.getValue().copy());
+		}
+		return copy;
+	}
+
+	public synchronized void reset() {
+		for (long[] histogram : histograms) {
+			Arrays.fill(histogram, 0);
+		}
+		hosts.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		var builder = new StringBuilder();
+
+		for (Map.Entry<String, HostStats> entry : hosts.entrySet()) {
+			HostStats host = entry.getValue();
+			builder.append(entry.getKey())
+					.append(": calls=").append(host.calls)
+					.append(" failures=").append(host.failures)
+					.append(" avg=").append(host.calls == 0 ? 0 : host.totalMs / host.calls).append("ms")
+					.append(" newConnections=").append(host.newConnections)
+					.append("\n");
+		}
+		return builder.toString();
+	}
+
+}
@@ -11,6 +11,8 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.EditText;
 import android.widget.Toast;
@@ -20,21 +22,41 @@ import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
 
+import okhttp3.Cache;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.FormBody;
 import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
 import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
 import okio.Okio;
+import okio.Sink;
 
 /**
  * Louis Lam's Lazy Library for Android.
@@ -79,6 +101,27 @@ public class L {
 	 */
 	private static boolean log = true;
 
+	/**
+	 * Shared HTTP client, created on first use
+	 */
+	private static volatile OkHttpClient httpClient;
+
+	private static volatile HttpConfig httpConfig = new HttpConfig();
+
+	private static final HttpCacheStats httpCacheStats = new HttpCacheStats();
+
+	private static final RequestCoalescer requestCoalescer = new RequestCoalescer();
+
+	private static final HttpTimingStats httpTimingStats = new HttpTimingStats();
+
+	private static final RequestScheduler requestScheduler = new RequestScheduler();
+
+	private static Handler mainHandler;
+
+	private static volatile MainThreadBatcher mainThreadBatcher;
+
+	private static final long STREAM_CHUNK_SIZE = 64 * 1024;
+
 	/**
 	 * Lazy start an activity with a string of class name.
 	 * <p/>
@@ -509,6 +552,165 @@ public class L {
 		writer.close();
 	}
 
+	/**
+	 * Change the settings of the shared HTTP client.
+	 * The client will be rebuilt on the next request, calls already running or queued finish on the old client.
+	 * A cache in the same directory keeps the open instance, another one is closed after the old calls finish.
+	 * <p/>
+	 * Example Usage:
+	 * L.setHttpConfig(new HttpConfig().maxRequestsPerHost(8));
+	 *
+	 * @param config
+	 */
+	public static synchronized void setHttpConfig(HttpConfig config) {
+		httpConfig = config;
+
+		if (httpClient != null) {
+			httpClient.connectionPool().evictAll();
+
+			Cache oldCache = httpClient.cache();
+
+			if (oldCache != null && config.cache != null && oldCache.directory().equals(config.cache.directory())) {
+				// Only one Cache may use a directory, the new client shares the open one
+				config.cache = oldCache;
+			} else if (oldCache != null && oldCache != config.cache) {
+				closeWhenIdle(httpClient.dispatcher(), oldCache);
+			}
+
+			httpClient = null;
+		}
+	}
+
+	/**
+	 * Close the cache of an old client once its running and queued calls are finished,
+	 * a call using a closed cache throws IllegalStateException
+	 */
+	private static void closeWhenIdle(Dispatcher dispatcher, Cache cache) {
+		Runnable close = () -> {
+			try {
+				cache.close();
+			} catch (IOException e) {
+				L.log(e.toString());
+			}
+		};
+
+		dispatcher.setIdleCallback(close);
+
+		if (dispatcher.runningCallsCount() == 0 && dispatcher.queuedCallsCount() == 0) {
+			dispatcher.setIdleCallback(null);
+			close.run();
+		}
+	}
+
+	/**
+	 * @return the current settings of the shared HTTP client
+	 */
+	public static HttpConfig getHttpConfig() {
+		return httpConfig;
+	}
+
+	/**
+	 * Enable the HTTP response cache under the app's cache dir.
+	 * <p/>
+	 * Example Usage:
+	 * L.enableHttpCache(this, 10 * 1024 * 1024);
+	 *
+	 * @param c
+	 * @param maxSize in bytes
+	 */
+	public static synchronized void enableHttpCache(Context c, long maxSize) {
+		setHttpConfig(httpConfig.cache(new File(c.getCacheDir(), "http"), maxSize));
+	}
+
+	/**
+	 * @return the aggregated timings by phase and host, if timing is enabled in HttpConfig
+	 */
+	public static HttpTimingStats getHttpTimingStats() {
+		return httpTimingStats;
+	}
+
+	/**
+	 * @return the hit/miss/revalidation counters of the HTTP response cache
+	 */
+	public static HttpCacheStats getHttpCacheStats() {
+		return httpCacheStats;
+	}
+
+	/**
+	 * Get the shared HTTP client, so that all requests reuse the same connection pool and dispatcher.
+	 * Use client.newBuilder() if you need a client with different settings, it shares the pool too.
+	 *
+	 * @return the shared OkHttpClient
+	 */
+	public static OkHttpClient getHttpClient() {
+		var client = httpClient;
+
+		if (client == null) {
+			synchronized (L.class) {
+				client = httpClient;
+
+				if (client == null) {
+					client = buildHttpClient(httpConfig);
+					httpClient = client;
+				}
+			}
+		}
+		return client;
+	}
+
+	private static OkHttpClient buildHttpClient(HttpConfig config) {
+		// Bounded pool, the dispatcher never runs more than maxRequests calls at once
+		var executor = new ThreadPoolExecutor(config.maxRequests, config.maxRequests, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+					var t = new Thread(r, "L-http");
+					t.setDaemon(true);
+					return t;
+				});
+		executor.allowCoreThreadTimeOut(true);
+
+		var dispatcher = new Dispatcher(executor);
+		dispatcher.setMaxRequests(config.maxRequests);
+		dispatcher.setMaxRequestsPerHost(config.maxRequestsPerHost);
+
+		var builder = new OkHttpClient.Builder()
+				.dispatcher(dispatcher)
+				.connectionPool(new ConnectionPool(config.maxIdleConnections, config.keepAliveMs, TimeUnit.MILLISECONDS))
+				.connectTimeout(config.connectTimeoutMs, TimeUnit.MILLISECONDS)
+				.readTimeout(config.readTimeoutMs, TimeUnit.MILLISECONDS)
+				.writeTimeout(config.writeTimeoutMs, TimeUnit.MILLISECONDS)
+				.protocols(config.protocols);
+
+		if (config.timing) {
+			builder.eventListenerFactory(TimingEventListener.FACTORY)
+					.addInterceptor(TimingEventListener.INTERCEPTOR);
+		}
+
+		if (config.compressMinBytes >= 0) {
+			builder.addInterceptor(new CompressionInterceptor(config.compressMinBytes));
+
+			var brotli = CompressionInterceptor.brotliInterceptor();
+
+			if (brotli != null) {
+				builder.addInterceptor(brotli);
+			}
+		}
+
+		if (config.retryPolicy != null) {
+			builder.addInterceptor(new RetryInterceptor(config.retryPolicy));
+		}
+
+		if (config.dns != null) {
+			builder.dns(config.dns);
+		}
+
+		if (config.cache != null) {
+			builder.cache(config.cache)
+					.addInterceptor(httpCacheStats);
+		}
+
+		return builder.build();
+	}
+
 	public static Response get(String url) throws IOException {
 		return get(url, null);
 	}
@@ -521,14 +723,32 @@ public class L {
 	 * @throws IOException
 	 */
 	public static Response get(String url, Map<String,String> params) throws IOException {
-		var client = new OkHttpClient();
+		var client = getHttpClient();
 
-		HttpUrl httpURL = HttpUrl.parse(url);
+		HttpUrl httpURL = buildUrl(url, params);
 
 		if (httpURL == null) {
 			throw new IOException("Invalid URL");
 		}
 
+		Request request = new Request.Builder().url(httpURL).build();
+
+		return  client.newCall(request).execute();
+	}
+
+	/**
+	 * Build a URL with Query String
+	 * @param url
+	 * @param params
+	 * @return the URL, null if the URL is invalid
+	 */
+	static HttpUrl buildUrl(String url, Map<String,String> params) {
+		HttpUrl httpURL = HttpUrl.parse(url);
+
+		if (httpURL == null) {
+			return null;
+		}
+
 		var httpBuilder = httpURL.newBuilder();
 
 		if (params != null) {
@@ -536,22 +756,19 @@ public class L {
 				httpBuilder.addQueryParameter(entry.getKey(), entry.getValue());
 			}
 		}
-
-		Request request = new Request.Builder().url(httpBuilder.build()).build();
-
-		return  client.newCall(request).execute();
+		return httpBuilder.build();
 	}
 
-	public static void getAsync(String url) {
-		getAsync(url, null, (response, e) -> { });
+	public static HttpTask getAsync(String url) {
+		return getAsync(url, null, (response, e) -> { });
 	}
 
-	public static void getAsync(String url, ResponseCallback callback) {
-		getAsync(url, null, callback);
+	public static HttpTask getAsync(String url, ResponseCallback callback) {
+		return getAsync(url, null, callback);
 	}
 
-	public static void getAsync(String url, Map<String,String> data) {
-		getAsync(url, data, (response, e) -> { });
+	public static HttpTask getAsync(String url, Map<String,String> data) {
+		return getAsync(url, data, (response, e) -> { });
 	}
 
 	/**
@@ -560,95 +777,547 @@ public class L {
 	 * @param url
 	 * @param data
 	 * @param callback
+	 * @return the task, which can be cancelled
 	 */
-	public static void getAsync(String url, Map<String,String> data, ResponseCallback callback) {
-		new Thread(() -> {
-			var client = new OkHttpClient();
-			HttpUrl httpURL = HttpUrl.parse(url);
+	public static HttpTask getAsync(String url, Map<String,String> data, ResponseCallback callback) {
+		return getAsync(url, data, callback, false);
+	}
 
-			if (httpURL == null) {
-				if (callback != null) {
-					callback.run(null, new IOException("Invalid URL"));
+	/**
+	 * Make a GET request, the callback is run on the main thread if mainThread is true.
+	 * In that case, the body is read before the callback, so you can use it on the main thread.
+	 * @param url
+	 * @param data
+	 * @param callback
+	 * @param mainThread
+	 * @return the task, which can be cancelled
+	 */
+	public static HttpTask getAsync(String url, Map<String,String> data, ResponseCallback callback, boolean mainThread) {
+		HttpUrl httpURL = buildUrl(url, data);
+
+		if (httpURL == null) {
+			return failedTask(new IOException("Invalid URL"), callback, mainThread);
+		}
+
+		Request request = new Request.Builder().url(httpURL).build();
+
+		if (httpConfig.coalesceGets) {
+			return requestCoalescer.enqueue(getHttpClient(), request, callback, mainThread);
+		}
+		return enqueue(request, callback, mainThread);
+	}
+
+	/**
+	 * Make a POST request to a URL with FormBody Data
+	 * In PHP, you can read the value by $_POST
+	 * @param url
+	 * @param data
+	 * @param callback
+	 * @return the task, which can be cancelled
+	 */
+	public static HttpTask postAsync(String url, Map<String,String> data, ResponseCallback callback) {
+		return postAsync(url, data, callback, false);
+	}
+
+	/**
+	 * Make a POST request, the callback is run on the main thread if mainThread is true.
+	 * @param url
+	 * @param data
+	 * @param callback
+	 * @param mainThread
+	 * @return the task, which can be cancelled
+	 */
+	public static HttpTask postAsync(String url, Map<String,String> data, ResponseCallback callback, boolean mainThread) {
+		HttpUrl httpURL = HttpUrl.parse(url);
+
+		if (httpURL == null) {
+			return failedTask(new IOException("Invalid URL"), callback, mainThread);
+		}
+
+		var bodyBuilder = new FormBody.Builder();
+
+		if (data != null) {
+			for (Map.Entry<String, String> entry : data.entrySet()) {
+				bodyBuilder.add(entry.getKey(), entry.getValue());
+			}
+		}
+
+		Request request = new Request.Builder()
+				.url(httpURL)
+				.post(bodyBuilder.build())
+				.build();
+
+		return enqueue(request, callback, mainThread);
+	}
+
+	/**
+	 * Make a GET request and decode the body on a background thread.
+	 * Only the decoded result is delivered to the main thread, results that finish together are delivered in the same frame.
+	 * <p/>
+	 * Example Usage:
+	 * L.getAsync(url, params, Decoder.JSON_OBJECT, (json, e) -> {
+	 *     textView.setText(json.optString("name"));
+	 * });
+	 *
+	 * @param url
+	 * @param data
+	 * @param decoder
+	 * @param callback run on the main thread
+	 * @return the task, which can be cancelled
+	 */
+	public static <T> HttpTask getAsync(String url, Map<String,String> data, Decoder<T> decoder, TypedCallback<T> callback) {
+		var taskRef = new AtomicReference<HttpTask>();
+		HttpTask task = getAsync(url, data, decodeCallback(decoder, callback, taskRef), false);
+		taskRef.set(task);
+		return task;
+	}
+
+	/**
+	 * Make a POST request and decode the body on a background thread.
+	 * @see #getAsync(String, Map, Decoder, TypedCallback)
+	 */
+	public static <T> HttpTask postAsync(String url, Map<String,String> data, Decoder<T> decoder, TypedCallback<T> callback) {
+		var taskRef = new AtomicReference<HttpTask>();
+		HttpTask task = postAsync(url, data, decodeCallback(decoder, callback, taskRef), false);
+		taskRef.set(task);
+		return task;
+	}
+
+	/**
+	 * @param taskRef the task of the request, set after it is enqueued. The callback is not run once it is cancelled.
+	 */
+	private static <T> ResponseCallback decodeCallback(Decoder<T> decoder, TypedCallback<T> callback, AtomicReference<HttpTask> taskRef) {
+		return (response, e) -> {
+			if (e != null) {
+				postDecoded(taskRef, () -> callback.run(null, e));
+				return;
+			}
+
+			if (isCancelled(taskRef)) {
+				return;
+			}
+
+			T result;
+
+			try {
+				ResponseBody body = response.body();
+
+				if (!response.isSuccessful() || body == null) {
+					throw new IOException("Unexpected response: " + response.code());
 				}
+				result = decoder.decode(body);
+			} catch (IOException | RuntimeException ex) {
+				postDecoded(taskRef, () -> callback.run(null, ex));
 				return;
 			}
 
-			var httpBuilder = httpURL.newBuilder();
+			postDecoded(taskRef, () -> callback.run(result, null));
+		};
+	}
+
+	/**
+	 * Run the callback on the main thread, unless the task is cancelled before the next frame
+	 */
+	private static void postDecoded(AtomicReference<HttpTask> taskRef, Runnable r) {
+		getMainThreadBatcher().post(() -> {
+			if (!isCancelled(taskRef)) {
+				r.run();
+			}
+		});
+	}
 
-			if (data != null) {
-				for (Map.Entry<String, String> entry : data.entrySet()) {
-					httpBuilder.addQueryParameter(entry.getKey(), entry.getValue());
+	private static boolean isCancelled(AtomicReference<HttpTask> taskRef) {
+		HttpTask task = taskRef.get();
+		return task != null && task.isCancelled();
+	}
+
+	private static MainThreadBatcher getMainThreadBatcher() {
+		var batcher = mainThreadBatcher;
+
+		if (batcher == null) {
+			synchronized (L.class) {
+				if (mainThreadBatcher == null) {
+					mainThreadBatcher = new MainThreadBatcher();
 				}
+				batcher = mainThreadBatcher;
 			}
+		}
+		return batcher;
+	}
 
-			Request request = new Request.Builder().url(httpBuilder.build()).build();
-			client.newCall(request).enqueue(new Callback() {
-				@Override
-				public void onFailure(@NotNull Call call, @NotNull IOException e) {
-					if (callback != null) {
-						callback.run(null, e);
+	/**
+	 * Make a GET request and read the body chunk by chunk, so large bodies are processed with flat memory.
+	 * The next chunk is read only after onChunk() returns, and it is appended to the bytes left unread.
+	 * <p/>
+	 * Example Usage:
+	 * L.streamAsync(url, null, new StreamCallback() {
+	 *     public boolean onChunk(Buffer chunk, boolean end) throws IOException {
+	 *         long newline;
+	 *         while ((newline = chunk.indexOf((byte) '\n')) != -1) {
+	 *             String line = chunk.readUtf8(newline + 1);
+	 *         }
+	 *         if (end &amp;&amp; chunk.size() &gt; 0) {
+	 *             String lastLine = chunk.readUtf8();
+	 *         }
+	 *         return true;
+	 *     }
+	 *     public void onDone(Response response, Exception e) { }
+	 * });
+	 *
+	 * @param url
+	 * @param data
+	 * @param callback
+	 * @return the task, which can be cancelled
+	 */
+	public static HttpTask streamAsync(String url, Map<String,String> data, StreamCallback callback) {
+		HttpUrl httpURL = buildUrl(url, data);
+
+		if (httpURL == null) {
+			var task = new HttpTask(null);
+			var e = new IOException("Invalid URL");
+			callback.onDone(null, e);
+			task.complete(null, e);
+			return task;
+		}
+
+		var call = getHttpClient().newCall(new Request.Builder().url(httpURL).build());
+		var task = new HttpTask(call);
+
+		call.enqueue(new Callback() {
+			@Override
+			public void onFailure(@NotNull Call call, @NotNull IOException e) {
+				try {
+					callback.onDone(null, e);
+				} finally {
+					task.complete(null, e);
+				}
+			}
+
+			@Override
+			public void onResponse(@NotNull Call call, @NotNull Response response) {
+				Exception error = null;
+
+				try (response) {
+					ResponseBody body = response.body();
+
+					if (!response.isSuccessful() || body == null) {
+						throw new IOException("Unexpected response: " + response.code());
+					}
+
+					BufferedSource source = body.source();
+					Buffer chunk = new Buffer();
+
+					while (!task.isCancelled()) {
+						// Unread bytes are kept, so a record across two reads stays whole
+						boolean end = source.read(chunk, STREAM_CHUNK_SIZE) == -1;
+
+						if (!callback.onChunk(chunk, end) || end) {
+							break;
+						}
 					}
+				} catch (IOException | RuntimeException e) {
+					// Including an exception of onChunk(), onDone() is still called once
+					error = e;
 				}
 
-				@Override
-				public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
-					if (callback != null) {
-						callback.run(response, null);
+				if (error == null && task.isCancelled()) {
+					error = new IOException("Canceled");
+				}
+
+				try {
+					callback.onDone(response, error);
+				} finally {
+					task.complete(response, error);
+				}
+			}
+		});
+
+		return task;
+	}
+
+	/**
+	 * Make a GET request and pipe the body into a sink (e.g. Okio.sink(file)) without copying it into a String.
+	 * The sink is closed when it is done.
+	 * @param url
+	 * @param data
+	 * @param sink
+	 * @param callback the response body is already consumed
+	 * @return the task, which can be cancelled
+	 */
+	public static HttpTask streamAsync(String url, Map<String,String> data, Sink sink, ResponseCallback callback) {
+		return streamAsync(url, data, new StreamCallback() {
+			@Override
+			public boolean onChunk(Buffer chunk, boolean end) throws IOException {
+				sink.write(chunk, chunk.size());
+				return true;
+			}
+
+			@Override
+			public void onDone(Response response, Exception e) {
+				try {
+					sink.close();
+				} catch (IOException ex) {
+					if (e == null) {
+						e = ex;
 					}
-					response.close();
 				}
-			});
-		}).start();
+
+				if (callback != null) {
+					callback.run(response, e);
+				}
+			}
+		});
 	}
 
 	/**
-	 * Make a POST request to a URL with FormBody Data
-	 * In PHP, you can read the value by $_POST
+	 * Make a POST request that is kept on disk until it is delivered, even if the device is offline or the app is restarted.
+	 * It is retried with exponential backoff, and the server receives an "Idempotency-Key" header.
+	 * <p/>
+	 * Example Usage:
+	 * L.postToOutbox(this, "https://example.com/api", data);
+	 *
+	 * @param c
 	 * @param url
 	 * @param data
+	 * @return the idempotency key
+	 */
+	public static String postToOutbox(Context c, String url, Map<String,String> data) {
+		return Outbox.getInstance(c).post(url, data);
+	}
+
+	/**
+	 * Enqueue a request into the shared client's dispatcher, no extra thread is created.
+	 * @param request
 	 * @param callback
+	 * @param mainThread
+	 * @return the task
 	 */
-	public static void postAsync(String url, Map<String,String> data, ResponseCallback callback) {
-		new Thread(() -> {
-			var client = new OkHttpClient();
-			HttpUrl httpURL = HttpUrl.parse(url);
+	public static HttpTask enqueue(Request request, ResponseCallback callback, boolean mainThread) {
+		var call = getHttpClient().newCall(request);
+		var task = new HttpTask(call);
+		enqueue(call, task, callback, mainThread, null);
+		return task;
+	}
 
-			if (httpURL == null) {
-				if (callback != null) {
-					callback.run(null, new IOException("Invalid URL"));
+	/**
+	 * @param onFinish run on the dispatcher thread when the call is finished, can be null
+	 */
+	static void enqueue(Call call, HttpTask task, ResponseCallback callback, boolean mainThread, Runnable onFinish) {
+		call.enqueue(new Callback() {
+			@Override
+			public void onFailure(@NotNull Call call, @NotNull IOException e) {
+				try {
+					if (!task.isCancelled()) {
+						deliver(task, null, e, callback, mainThread);
+					}
+				} finally {
+					if (onFinish != null) {
+						onFinish.run();
+					}
 				}
-				return;
 			}
 
-			var httpBuilder = httpURL.newBuilder();
-			var bodyBuilder = new FormBody.Builder();
+			@Override
+			public void onResponse(@NotNull Call call, @NotNull Response response) {
+				try {
+					if (task.isCancelled()) {
+						response.close();
+						return;
+					}
 
-			if (data != null) {
-				for (Map.Entry<String, String> entry : data.entrySet()) {
-					bodyBuilder.add(entry.getKey(), entry.getValue());
+					if (mainThread && callback != null) {
+						Response buffered;
+
+						try {
+							buffered = bufferResponse(response);
+						} catch (IOException e) {
+							deliver(task, null, e, callback, true);
+							return;
+						}
+						deliver(task, buffered, null, callback, true);
+					} else {
+						deliver(task, response, null, callback, false);
+					}
+				} finally {
+					if (onFinish != null) {
+						onFinish.run();
+					}
 				}
 			}
+		});
+	}
 
-			Request request = new Request.Builder()
-					.url(httpBuilder.build())
-					.post(bodyBuilder.build())
-					.build();
+	/**
+	 * Open connections to the hosts ahead of time, e.g. in the splash screen,
+	 * so the first real request starts on a warm connection (DNS, TCP and TLS are done).
+	 * It sends a HEAD request to each URL in the background, the connection stays in the shared pool.
+	 * <p/>
+	 * Example Usage:
+	 * L.preconnect("https://api.example.com/", "https://cdn.example.com/");
+	 *
+	 * @param urls
+	 */
+	public static void preconnect(String... urls) {
+		for (String url : urls) {
+			HttpUrl httpURL = HttpUrl.parse(url);
+
+			if (httpURL == null) {
+				L.log("preconnect: invalid URL " + url);
+				continue;
+			}
 
-			client.newCall(request).enqueue(new Callback() {
+			Request request = new Request.Builder().url(httpURL).head().build();
+			getHttpClient().newCall(request).enqueue(new Callback() {
 				@Override
 				public void onFailure(@NotNull Call call, @NotNull IOException e) {
-					callback.run(null, e);
+					L.log("preconnect: " + e);
 				}
 
 				@Override
-				public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
-					if (callback != null) {
-						callback.run(response, null);
-					}
+				public void onResponse(@NotNull Call call, @NotNull Response response) {
 					response.close();
 				}
 			});
-		}).start();
+		}
+	}
+
+	/**
+	 * Make a GET request with a priority, tagged by a Context.
+	 * Higher priority requests are started first, see HttpConfig.priorityLimits().
+	 * If the context is an Activity, the request is cancelled when the Activity is destroyed.
+	 * <p/>
+	 * Example Usage:
+	 * L.getAsync(this, Priority.USER_BLOCKING, url, params, (response, e) -> { });
+	 * L.getAsync(this, Priority.PREFETCH, url, params, (response, e) -> { });
+	 *
+	 * @param tag
+	 * @param priority
+	 * @param url
+	 * @param data
+	 * @param callback
+	 * @return the task, which can be cancelled
+	 */
+	public static HttpTask getAsync(Context tag, Priority priority, String url, Map<String,String> data, ResponseCallback callback) {
+		HttpUrl httpURL = buildUrl(url, data);
+
+		if (httpURL == null) {
+			return failedTask(new IOException("Invalid URL"), callback, false);
+		}
+
+		Request request = new Request.Builder().url(httpURL).build();
+		return requestScheduler.submit(tag, priority, request, callback, false);
+	}
+
+	/**
+	 * Make a POST request with a priority, tagged by a Context.
+	 * @see #getAsync(Context, Priority, String, Map, ResponseCallback)
+	 */
+	public static HttpTask postAsync(Context tag, Priority priority, String url, Map<String,String> data, ResponseCallback callback) {
+		HttpUrl httpURL = HttpUrl.parse(url);
+
+		if (httpURL == null) {
+			return failedTask(new IOException("Invalid URL"), callback, false);
+		}
+
+		var bodyBuilder = new FormBody.Builder();
+
+		if (data != null) {
+			for (Map.Entry<String, String> entry : data.entrySet()) {
+				bodyBuilder.add(entry.getKey(), entry.getValue());
+			}
+		}
+
+		Request request = new Request.Builder()
+				.url(httpURL)
+				.post(bodyBuilder.build())
+				.build();
+
+		return requestScheduler.submit(tag, priority, request, callback, false);
+	}
+
+	/**
+	 * Cancel all requests tagged by the context, queued or running
+	 * <p/>
+	 * Example Usage:
+	 * L.cancelAll(this);
+	 *
+	 * @param tag
+	 */
+	public static void cancelAll(Object tag) {
+		requestScheduler.cancelAll(tag);
+	}
+
+	private static HttpTask failedTask(Exception e, ResponseCallback callback, boolean mainThread) {
+		var task = new HttpTask(null);
+		deliver(task, null, e, callback, mainThread);
+		return task;
+	}
+
+	static void deliver(HttpTask task, Response response, Exception e, ResponseCallback callback, boolean mainThread) {
+		Runnable r = () -> {
+			if (callback == null) {
+				// No callback, the caller gets the response from the task and closes it
+				if (!task.complete(response, e) && response != null) {
+					response.close();
+				}
+				return;
+			}
+
+			if (!task.isCancelled()) {
+				callback.run(response, e);
+			}
+
+			if (response != null) {
+				response.close();
+			}
+			task.complete(response, e);
+		};
+
+		if (mainThread) {
+			runOnMainThread(r);
+		} else {
+			r.run();
+		}
+	}
+
+	/**
+	 * Read the whole body into memory, so that it can be used after the connection is released
+	 * @param response
+	 * @return a response with an in-memory body
+	 * @throws IOException
+	 */
+	static Response bufferResponse(Response response) throws IOException {
+		ResponseBody body = response.body();
+
+		if (body == null) {
+			return response;
+		}
+
+		try {
+			var bytes = body.bytes();
+			return response.newBuilder().body(ResponseBody.create(bytes, body.contentType())).build();
+		} finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Run a task on the main thread
+	 * @param r
+	 */
+	public static void runOnMainThread(Runnable r) {
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			r.run();
+			return;
+		}
+
+		var handler = mainHandler;
+
+		if (handler == null) {
+			handler = new Handler(Looper.getMainLooper());
+			mainHandler = handler;
+		}
+		handler.post(r);
 	}
 
 	/**
@@ -670,4 +1339,309 @@ public class L {
 			throw new IOException("Response body is null, cannot convert to a file");
 		}
 	}
+
+	/**
+	 * ⚠️ Network call
+	 * Download a large file in parallel segments with HTTP Range requests.
+	 * If it is interrupted, calling it again resumes from where it stopped.
+	 * Falls back to a single stream if the server doesn't support ranges.
+	 * <p/>
+	 * Example Usage:
+	 * L.downloadFile("https://example.com/bundle.zip", file, 4);
+	 *
+	 * @param url
+	 * @param targetFile
+	 * @param segments number of parallel connections
+	 * @throws IOException
+	 */
+	public static File downloadFile(String url, File targetFile, int segments) throws IOException {
+		return new SegmentedDownload(getHttpClient(), url, targetFile).download(segments);
+	}
+
+	/**
+	 * ⚠️ Network call
+	 * Download a file and compute its digest while streaming, no need to read the file again.
+	 * The file is written to "[target].tmp" and renamed to the target only if the digest matches expectedHash.
+	 * <p/>
+	 * Example Usage:
+	 * L.downloadFileWithDigest(url, file, "SHA-256", "9f86d0...", (bytes, total) -> { });
+	 *
+	 * @param url
+	 * @param targetFile
+	 * @param algorithm "CRC32" or a MessageDigest algorithm, e.g. "SHA-256", "MD5"
+	 * @param expectedHash hex string (case insensitive), null to skip verification
+	 * @param progress called at most 10 times per second on the download thread, can be null
+	 * @return the digest in lowercase hex
+	 * @throws IOException if the download fails or the digest doesn't match
+	 */
+	public static String downloadFileWithDigest(String url, File targetFile, String algorithm, String expectedHash, ProgressCallback progress) throws IOException {
+		return downloadFileWithDigest(url, targetFile, algorithm, expectedHash, progress, 10);
+	}
+
+	/**
+	 * @param maxUpdatesPerSecond max calls of progress per second, the last update is always sent
+	 * @see #downloadFileWithDigest(String, File, String, String, ProgressCallback)
+	 */
+	public static String downloadFileWithDigest(String url, File targetFile, String algorithm, String expectedHash, ProgressCallback progress, int maxUpdatesPerSecond) throws IOException {
+		MessageDigest digest = null;
+		CRC32 crc = null;
+
+		if ("CRC32".equalsIgnoreCase(algorithm)) {
+			crc = new CRC32();
+		} else {
+			try {
+				digest = MessageDigest.getInstance(algorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException("Unsupported algorithm: " + algorithm, e);
+			}
+		}
+
+		File tmp = new File(targetFile.getPath() + ".tmp");
+
+		try (Response response = get(url)) {
+			ResponseBody body = response.body();
+
+			if (!response.isSuccessful() || body == null) {
+				throw new IOException("Unexpected response: " + response.code());
+			}
+
+			var tracker = new ProgressTracker(progress, body.contentLength(), maxUpdatesPerSecond);
+			byte[] buffer = new byte[64 * 1024];
+
+			try (InputStream in = body.byteStream(); FileOutputStream out = new FileOutputStream(tmp)) {
+				int read;
+
+				while ((read = in.read(buffer)) != -1) {
+					if (crc != null) {
+						crc.update(buffer, 0, read);
+					} else {
+						digest.update(buffer, 0, read);
+					}
+
+					out.write(buffer, 0, read);
+					tracker.add(read);
+				}
+
+				out.getFD().sync();
+			}
+
+			tracker.finish();
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+
+		String hash;
+
+		if (crc != null) {
+			hash = String.format("%08x", crc.getValue());
+		} else {
+			hash = ByteString.of(digest.digest()).hex();
+		}
+
+		if (expectedHash != null && !expectedHash.equalsIgnoreCase(hash)) {
+			tmp.delete();
+			throw new IOException("Digest mismatch, expected " + expectedHash + " but got " + hash);
+		}
+
+		if (!tmp.renameTo(targetFile)) {
+			targetFile.delete();
+
+			if (!tmp.renameTo(targetFile)) {
+				tmp.delete();
+				throw new IOException("Cannot rename " + tmp + " to " + targetFile);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * ⚠️ Network call
+	 * Upload a file with a multipart POST, the file is streamed from disk.
+	 * In PHP, you can read the file by $_FILES[fieldName]
+	 * <p/>
+	 * Example Usage:
+	 * Response response = L.uploadFile(url, "photo", file, (bytes, total) -> { });
+	 * response.close();
+	 *
+	 * @param url
+	 * @param fieldName
+	 * @param file
+	 * @param progress called at most 10 times per second, can be null
+	 * @return the response, remember to call response.close()
+	 * @throws IOException
+	 */
+	public static Response uploadFile(String url, String fieldName, File file, ProgressCallback progress) throws IOException {
+		return uploadFile(url, fieldName, file, progress, false);
+	}
+
+	/**
+	 * @param chunked send with "Transfer-Encoding: chunked" instead of Content-Length
+	 * @see #uploadFile(String, String, File, ProgressCallback)
+	 */
+	public static Response uploadFile(String url, String fieldName, File file, ProgressCallback progress, boolean chunked) throws IOException {
+		var files = new HashMap<String, File>();
+		files.put(fieldName, file);
+		return getHttpClient().newCall(buildMultipartRequest(url, null, files, progress, chunked)).execute();
+	}
+
+	/**
+	 * Make a multipart POST request with form fields and files, the files are streamed from disk.
+	 * <p/>
+	 * Example Usage:
+	 * L.postMultipartAsync(url, data, files, (bytes, total) -> { }, (response, e) -> { });
+	 *
+	 * @param url
+	 * @param data form fields, can be null
+	 * @param files field name to file
+	 * @param progress called at most 10 times per second, can be null
+	 * @param callback
+	 * @return the task, which can be cancelled
+	 */
+	public static HttpTask postMultipartAsync(String url, Map<String,String> data, Map<String,File> files, ProgressCallback progress, ResponseCallback callback) {
+		Request request;
+
+		try {
+			request = buildMultipartRequest(url, data, files, progress, false);
+		} catch (IOException e) {
+			return failedTask(e, callback, false);
+		}
+		return enqueue(request, callback, false);
+	}
+
+	private static Request buildMultipartRequest(String url, Map<String,String> data, Map<String,File> files, ProgressCallback progress, boolean chunked) throws IOException {
+		HttpUrl httpURL = HttpUrl.parse(url);
+
+		if (httpURL == null) {
+			throw new IOException("Invalid URL");
+		}
+
+		long total = 0;
+
+		for (File file : files.values()) {
+			total += file.length();
+		}
+
+		var tracker = new ProgressTracker(progress, total, 10);
+		var bodyBuilder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+
+		if (data != null) {
+			for (Map.Entry<String, String> entry : data.entrySet()) {
+				bodyBuilder.addFormDataPart(entry.getKey(), entry.getValue());
+			}
+		}
+
+		MediaType octetStream = MediaType.get("application/octet-stream");
+
+		for (Map.Entry<String, File> entry : files.entrySet()) {
+			File file = entry.getValue();
+			bodyBuilder.addFormDataPart(entry.getKey(), file.getName(), new FileRequestBody(file, 0, file.length(), octetStream, tracker, chunked));
+		}
+
+		MultipartBody multipart = bodyBuilder.build();
+
+		// The last update is sent once the whole body is written, the throttle may have skipped it
+		RequestBody body = new RequestBody() {
+			@Override
+			public MediaType contentType() {
+				return multipart.contentType();
+			}
+
+			@Override
+			public long contentLength() throws IOException {
+				return multipart.contentLength();
+			}
+
+			@Override
+			public void writeTo(@NotNull BufferedSink sink) throws IOException {
+				multipart.writeTo(sink);
+				tracker.finish();
+			}
+		};
+
+		return new Request.Builder()
+				.url(httpURL)
+				.post(body)
+				.build();
+	}
+
+	/**
+	 * ⚠️ Network call
+	 * Upload a file in chunks to a resumable upload URL (tus 1.0 core protocol).
+	 * It asks the server for the current offset with HEAD, then sends the rest with PATCH requests,
+	 * so if it is interrupted, calling it again continues from where the server stopped.
+	 * The upload URL must be created on the server first.
+	 * <p/>
+	 * Example Usage:
+	 * L.uploadFileResumable("https://example.com/files/24e533e", file, 4 * 1024 * 1024, (bytes, total) -> { });
+	 *
+	 * @param uploadUrl
+	 * @param file
+	 * @param chunkSize bytes per PATCH request
+	 * @param progress called at most 10 times per second, can be null
+	 * @return the final offset
+	 * @throws IOException
+	 */
+	public static long uploadFileResumable(String uploadUrl, File file, long chunkSize, ProgressCallback progress) throws IOException {
+		var client = getHttpClient();
+		long length = file.length();
+		long offset;
+
+		Request head = new Request.Builder()
+				.url(uploadUrl)
+				.head()
+				.header("Tus-Resumable", "1.0.0")
+				.build();
+
+		try (Response response = client.newCall(head).execute()) {
+			if (response.code() == 404) {
+				throw new IOException("Upload URL not found: " + uploadUrl);
+			}
+			offset = parseUploadOffset(response);
+		}
+
+		var tracker = new ProgressTracker(progress, length, 10);
+		tracker.add(offset);
+		MediaType offsetStream = MediaType.get("application/offset+octet-stream");
+
+		while (offset < length) {
+			long size = Math.min(chunkSize, length - offset);
+
+			Request patch = new Request.Builder()
+					.url(uploadUrl)
+					.header("Tus-Resumable", "1.0.0")
+					.header("Upload-Offset", String.valueOf(offset))
+					.patch(new FileRequestBody(file, offset, size, offsetStream, tracker, false))
+					.build();
+
+			try (Response response = client.newCall(patch).execute()) {
+				if (response.code() == 409) {
+					// Offset mismatch, ask the server again next time
+					throw new IOException("Upload offset conflict at " + offset);
+				}
+
+				if (!response.isSuccessful()) {
+					throw new IOException("Unexpected response: " + response.code());
+				}
+				offset = parseUploadOffset(response);
+			}
+		}
+
+		tracker.finish();
+		return offset;
+	}
+
+	private static long parseUploadOffset(Response response) throws IOException {
+		String value = response.header("Upload-Offset");
+
+		if (value == null) {
+			throw new IOException("Missing Upload-Offset header, HTTP " + response.code());
+		}
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid Upload-Offset: " + value);
+		}
+	}
 }
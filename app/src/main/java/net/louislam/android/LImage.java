@@ -0,0 +1,546 @@
+package net.louislam.android;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+/**
+ * LImage - Lazy Image Loader
+ * <p/>
+ * Images are downloaded with the shared HTTP client, decoded at the size of the target view (inSampleSize),
+ * kept in a memory cache of decoded bitmaps and a disk cache of encoded bytes.
+ * Identical requests share one download, and the request of a recycled view is cancelled.
+ * <p/>
+ * Example Usage:
+ * LImage.load(this, "https://example.com/photo.jpg", imageView);
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class LImage {
+
+	private static final long DEFAULT_DISK_CACHE_SIZE = 50 * 1024 * 1024;
+
+	private static class Target {
+		ImageView view;
+		TypedCallback<Bitmap> callback;
+	}
+
+	private static class Group {
+		final String key;
+		final String url;
+		final int width;
+		final int height;
+		final List<Target> targets = new ArrayList<>();
+		Call call;
+
+		Group(String key, String url, int width, int height) {
+			this.key = key;
+			this.url = url;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	private static final Map<String, Group> inFlight = new HashMap<>();
+	private static final Map<ImageView, Target> bindings = new WeakHashMap<>();
+
+	/**
+	 * Key of the bitmap that each view is showing, an evicted bitmap is only reused if no view is showing it
+	 */
+	private static final Map<ImageView, String> displayed = new WeakHashMap<>();
+
+	/**
+	 * Bitmaps given to a callback, the caller may keep them, so they are never reused
+	 */
+	private static final Set<Bitmap> handedOut = Collections.newSetFromMap(new WeakHashMap<>());
+
+	/**
+	 * Bitmaps put in the memory cache and not delivered yet, an evicted one is not reused while it is on its way
+	 */
+	private static final Set<Bitmap> delivering = new HashSet<>();
+
+	private static final List<SoftReference<Bitmap>> reusable = new LinkedList<>();
+
+	private static final ExecutorService diskExecutor = Executors.newFixedThreadPool(2, r -> {
+		var t = new Thread(r, "L-image");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private static LruCache<String, Bitmap> memoryCache;
+	private static File diskCacheDir;
+	private static long diskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+
+	/**
+	 * Set the size of the memory cache, default: 1/8 of the max heap
+	 *
+	 * @param bytes
+	 */
+	public static synchronized void setMemoryCacheSize(int bytes) {
+		memoryCache = createMemoryCache(bytes);
+	}
+
+	/**
+	 * Set the size of the disk cache, default: 50MB
+	 *
+	 * @param bytes
+	 */
+	public static synchronized void setDiskCacheSize(long bytes) {
+		diskCacheSize = bytes;
+	}
+
+	/**
+	 * Load an image into an ImageView, at the size of the view
+	 *
+	 * @param c
+	 * @param url
+	 * @param view
+	 */
+	public static void load(Context c, String url, ImageView view) {
+		int width = view.getWidth();
+		int height = view.getHeight();
+
+		if (width <= 0 || height <= 0) {
+			// Not laid out yet, use the screen size
+			width = c.getResources().getDisplayMetrics().widthPixels;
+			height = c.getResources().getDisplayMetrics().heightPixels;
+		}
+
+		var target = new Target();
+		target.view = view;
+		load(c, url, width, height, target);
+	}
+
+	/**
+	 * Load an image, downsampled to at least width x height
+	 *
+	 * @param c
+	 * @param url
+	 * @param width
+	 * @param height
+	 * @param callback run on the main thread, the bitmap can be kept, it is never reused for another image
+	 */
+	public static void load(Context c, String url, int width, int height, TypedCallback<Bitmap> callback) {
+		var target = new Target();
+		target.callback = callback;
+		load(c, url, width, height, target);
+	}
+
+	/**
+	 * Cancel the request of a view, e.g. when it is recycled in a list
+	 *
+	 * @param view
+	 */
+	public static void cancel(ImageView view) {
+		Target target;
+
+		synchronized (inFlight) {
+			target = bindings.remove(view);
+		}
+
+		if (target != null) {
+			detach(target);
+		}
+	}
+
+	public static synchronized void clearMemory() {
+		if (memoryCache != null) {
+			memoryCache.evictAll();
+		}
+
+		synchronized (reusable) {
+			reusable.clear();
+		}
+	}
+
+	private static void load(Context c, String url, int width, int height, Target target) {
+		init(c);
+
+		String key = url + "@" + width + "x" + height;
+		Bitmap bitmap = getMemoryCache().get(key);
+
+		if (target.view != null) {
+			cancel(target.view);
+		}
+
+		if (bitmap != null) {
+			deliver(target, key, bitmap, null);
+			return;
+		}
+
+		Group group;
+		boolean start;
+
+		synchronized (inFlight) {
+			if (target.view != null) {
+				bindings.put(target.view, target);
+			}
+
+			group = inFlight.get(key);
+			start = group == null;
+
+			if (start) {
+				group = new Group(key, url, width, height);
+				inFlight.put(key, group);
+			}
+
+			group.targets.add(target);
+		}
+
+		if (start) {
+			final Group g = group;
+			diskExecutor.execute(() -> loadFromDiskOrNetwork(g));
+		}
+	}
+
+	private static synchronized void init(Context c) {
+		if (diskCacheDir == null) {
+			diskCacheDir = new File(c.getApplicationContext().getCacheDir(), "images");
+			diskCacheDir.mkdirs();
+		}
+	}
+
+	private static synchronized LruCache<String, Bitmap> getMemoryCache() {
+		if (memoryCache == null) {
+			memoryCache = createMemoryCache((int) (Runtime.getRuntime().maxMemory() / 8));
+		}
+		return memoryCache;
+	}
+
+	private static LruCache<String, Bitmap> createMemoryCache(int bytes) {
+		return new LruCache<String, Bitmap>(bytes) {
+			@Override
+			protected int sizeOf(String key, Bitmap value) {
+				// A reused bitmap can be larger than the image in it
+				if (Build.VERSION.SDK_INT >= 19) {
+					return value.getAllocationByteCount();
+				}
+				return value.getRowBytes() * value.getHeight();
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+				if (evicted && oldValue.isMutable() && !isInUse(key, oldValue)) {
+					synchronized (reusable) {
+						reusable.add(new SoftReference<>(oldValue));
+					}
+				}
+			}
+		};
+	}
+
+	private static boolean isInUse(String key, Bitmap bitmap) {
+		synchronized (inFlight) {
+			return displayed.containsValue(key) || handedOut.contains(bitmap) || delivering.contains(bitmap);
+		}
+	}
+
+	private static void loadFromDiskOrNetwork(Group group) {
+		File file = diskFile(group.url);
+
+		if (file.exists()) {
+			try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+				byte[] bytes = source.readByteArray();
+				file.setLastModified(System.currentTimeMillis());
+				finish(group, decode(bytes, group.width, group.height), null);
+				return;
+			} catch (IOException | RuntimeException e) {
+				file.delete();
+			}
+		}
+
+		Call call = L.getHttpClient().newCall(new Request.Builder().url(group.url).build());
+
+		synchronized (inFlight) {
+			if (group.targets.isEmpty()) {
+				// All targets are cancelled
+				return;
+			}
+			group.call = call;
+		}
+
+		call.enqueue(new Callback() {
+			@Override
+			public void onFailure(@NotNull Call call, @NotNull IOException e) {
+				finish(group, null, e);
+			}
+
+			@Override
+			public void onResponse(@NotNull Call call, @NotNull Response response) {
+				try (response) {
+					ResponseBody body = response.body();
+
+					if (!response.isSuccessful() || body == null) {
+						throw new IOException("Unexpected response: " + response.code());
+					}
+
+					byte[] bytes = body.bytes();
+					writeDiskCache(group.url, bytes);
+					finish(group, decode(bytes, group.width, group.height), null);
+				} catch (IOException | RuntimeException e) {
+					finish(group, null, e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Decode with the largest inSampleSize that keeps the image at least width x height
+	 */
+	private static Bitmap decode(byte[] bytes, int width, int height) throws IOException {
+		var options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			throw new IOException("Cannot decode image");
+		}
+
+		int sampleSize = 1;
+
+		while (options.outWidth / (sampleSize * 2) >= width && options.outHeight / (sampleSize * 2) >= height) {
+			sampleSize *= 2;
+		}
+
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = sampleSize;
+		options.inMutable = true;
+
+		Bitmap candidate = takeReusable(options.outWidth / sampleSize, options.outHeight / sampleSize, sampleSize);
+
+		if (candidate != null) {
+			options.inBitmap = candidate;
+
+			try {
+				Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+
+				if (bitmap != null) {
+					return bitmap;
+				}
+			} catch (IllegalArgumentException e) {
+				// The candidate cannot be reused for this image
+			}
+
+			options.inBitmap = null;
+		}
+
+		Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+
+		if (bitmap == null) {
+			throw new IOException("Cannot decode image");
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Find an evicted bitmap that can be used as inBitmap.
+	 * Before API 19, it must have the same size and inSampleSize must be 1.
+	 */
+	private static Bitmap takeReusable(int width, int height, int sampleSize) {
+		synchronized (reusable) {
+			Iterator<SoftReference<Bitmap>> it = reusable.iterator();
+
+			while (it.hasNext()) {
+				Bitmap bitmap = it.next().get();
+
+				if (bitmap == null || bitmap.isRecycled()) {
+					it.remove();
+					continue;
+				}
+
+				boolean fits;
+
+				if (Build.VERSION.SDK_INT >= 19) {
+					fits = bitmap.getAllocationByteCount() >= width * height * 4;
+				} else {
+					fits = sampleSize == 1 && bitmap.getWidth() == width && bitmap.getHeight() == height;
+				}
+
+				if (fits) {
+					it.remove();
+					return bitmap;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static void finish(Group group, Bitmap bitmap, Exception e) {
+		List<Target> targets;
+
+		synchronized (inFlight) {
+			if (inFlight.get(group.key) == group) {
+				inFlight.remove(group.key);
+			}
+			targets = new ArrayList<>(group.targets);
+		}
+
+		if (bitmap != null) {
+			// Marked first, a bitmap larger than the cache is evicted by its own put()
+			synchronized (inFlight) {
+				delivering.add(bitmap);
+			}
+			getMemoryCache().put(group.key, bitmap);
+		}
+
+		L.runOnMainThread(() -> {
+			try {
+				for (Target target : targets) {
+					deliver(target, group.key, bitmap, e);
+				}
+			} finally {
+				if (bitmap != null) {
+					synchronized (inFlight) {
+						delivering.remove(bitmap);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Must be called on the main thread
+	 */
+	private static void deliver(Target target, String key, Bitmap bitmap, Exception e) {
+		if (target.view != null) {
+			synchronized (inFlight) {
+				Target bound = bindings.get(target.view);
+
+				// The view is bound to another request now
+				if (bound != null && bound != target) {
+					return;
+				}
+
+				bindings.remove(target.view);
+
+				if (bitmap != null) {
+					displayed.put(target.view, key);
+				}
+			}
+
+			if (bitmap != null) {
+				target.view.setImageBitmap(bitmap);
+			} else {
+				L.log("LImage: " + e);
+			}
+		} else if (target.callback != null) {
+			if (bitmap != null) {
+				synchronized (inFlight) {
+					handedOut.add(bitmap);
+				}
+			}
+			target.callback.run(bitmap, e);
+		}
+	}
+
+	/**
+	 * Remove a target from its group, the download is cancelled if nobody else is waiting for it
+	 */
+	private static void detach(Target target) {
+		Call toCancel = null;
+
+		synchronized (inFlight) {
+			for (Group group : inFlight.values()) {
+				if (group.targets.remove(target)) {
+					if (group.targets.isEmpty()) {
+						inFlight.remove(group.key);
+						toCancel = group.call;
+					}
+					break;
+				}
+			}
+		}
+
+		if (toCancel != null) {
+			toCancel.cancel();
+		}
+	}
+
+	private static File diskFile(String url) {
+		return new File(diskCacheDir, ByteString.encodeUtf8(url).md5().hex());
+	}
+
+	private static void writeDiskCache(String url, byte[] bytes) {
+		File file = diskFile(url);
+		File tmp = new File(file.getPath() + ".tmp");
+
+		try (BufferedSink sink = Okio.buffer(Okio.sink(tmp))) {
+			sink.write(bytes);
+		} catch (IOException e) {
+			tmp.delete();
+			return;
+		}
+
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			return;
+		}
+
+		trimDiskCache();
+	}
+
+	/**
+	 * Delete the least recently used files until the disk cache is under its size
+	 */
+	private static synchronized void trimDiskCache() {
+		File[] files = diskCacheDir.listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		long size = 0;
+
+		for (File file : files) {
+			size += file.length();
+		}
+
+		if (size <= diskCacheSize) {
+			return;
+		}
+
+		Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+		for (File file : files) {
+			if (size <= diskCacheSize) {
+				break;
+			}
+
+			size -= file.length();
+			file.delete();
+		}
+	}
+
+}
@@ -3,16 +3,614 @@ package net.louislam.android;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Base64;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * LStorage - Lazy Storage
+ * <p/>
+ * The static methods use the default storage of the app, which is opened once and cached.
+ * For many reads, keep the instance:
+ * <p/>
+ * LStorage storage = LStorage.get(this);
+ * int count = storage.getInt("count", 0);
  *
  * @author Louis Lam (louis@louislam.net)
  */
 public class LStorage {
 
+	private static final String DEFAULT_NAME = "Preference";
+
+	/**
+	 * Marks an array or list stored as a String by the SharedPreferences engine
+	 */
+	static final String PACKED_PREFIX = "lstorage-packed:";
+
+	private static volatile StorageEngine engine = StorageEngine.SHARED_PREFERENCES;
+
+	private static volatile LStorage defaultStorage;
+
+	/**
+	 * Held while the default storage is opened, so isReady() and preload() don't wait for the disk
+	 */
+	private static final Object defaultLock = new Object();
+
+	private static final Map<String, LStorage> namespaces = new HashMap<>();
+
+	private static volatile int blobThreshold = 16 * 1024;
+
+	private static volatile FutureTask<Long> preloadTask;
+
+	private final SharedPreferences prefs;
+	private final BlobStore blobs;
+
+	LStorage(SharedPreferences prefs, BlobStore blobs) {
+		this.prefs = prefs;
+		this.blobs = blobs;
+	}
+
+	private static LStorage open(Context c, String name) {
+		Context app = appContext(c);
+		File blobDir = new File(L.getInternalFilesDir(app), "lstorage_blobs/" + name);
+		var storage = new LStorage(engine.open(app, name), new BlobStore(blobDir));
+
+		if (blobDir.isDirectory()) {
+			storage.deleteUnreferencedBlobs();
+		}
+		return storage;
+	}
+
+	/**
+	 * Delete the files left by apply(), a crash, or a failed commit(). It runs before the storage is returned,
+	 * so no transaction has written a new file which is not referenced yet.
+	 */
+	@SuppressWarnings("unchecked")
+	private void deleteUnreferencedBlobs() {
+		var refs = new HashSet<String>();
+
+		for (Object value : prefs.getAll().values()) {
+			if (value instanceof String && BlobStore.isRef((String) value)) {
+				refs.add((String) value);
+			} else if (value instanceof Set && BlobStore.isRef((Set<String>) value)) {
+				refs.add(((Set<String>) value).iterator().next());
+			}
+		}
+		blobs.deleteUnreferenced(refs);
+	}
+
+	/**
+	 * Get the default storage of the app, it is cached so the preferences are looked up only once
+	 *
+	 * @param c
+	 * @return the storage
+	 */
+	public static LStorage get(Context c) {
+		var storage = defaultStorage;
+
+		if (storage == null) {
+			synchronized (defaultLock) {
+				storage = defaultStorage;
+
+				if (storage == null) {
+					storage = open(c, DEFAULT_NAME);
+					defaultStorage = storage;
+				}
+			}
+		}
+		return storage;
+	}
+
+	/**
+	 * Load the default storage and the namespaces on a background thread, call it in Application.onCreate(),
+	 * so the first getX() on the main thread doesn't wait for the disk.
+	 * Call it again to preload more namespaces, the default storage is loaded once.
+	 * <p/>
+	 * Example Usage:
+	 * Future&lt;Long&gt; ready = LStorage.preload(this, "feed");
+	 * long loadTimeMs = ready.get();
+	 *
+	 * @param c
+	 * @param namespaces
+	 * @return the load time in ms, when the storage is ready
+	 */
+	public static Future<Long> preload(Context c, String... namespaces) {
+		final Context app = appContext(c);
+		final FutureTask<Long> task;
+
+		synchronized (LStorage.class) {
+			if (preloadTask != null && namespaces.length == 0) {
+				return preloadTask;
+			}
+
+			task = new FutureTask<>(() -> {
+				long start = System.nanoTime();
+
+				// contains() waits until the file is loaded
+				get(app).exists("");
+
+				for (String name : namespaces) {
+					namespace(app, name).exists("");
+				}
+
+				long ms = (System.nanoTime() - start) / 1000000;
+				L.log("LStorage: loaded in " + ms + "ms");
+				return ms;
+			});
+
+			if (preloadTask == null) {
+				preloadTask = task;
+			}
+		}
+
+		Thread thread = new Thread(task, "L-storage-preload");
+		thread.setDaemon(true);
+		thread.start();
+		return task;
+	}
+
+	/**
+	 * @return true if LStorage.preload() is called and the default storage is loaded
+	 */
+	public static boolean isReady() {
+		FutureTask<Long> task = preloadTask;
+		return task != null && task.isDone();
+	}
+
+	/**
+	 * Change the storage engine, call it before the first use of LStorage, e.g. in Application.onCreate()
+	 *
+	 * @param storageEngine StorageEngine.SHARED_PREFERENCES (default) or StorageEngine.LOG
+	 */
+	public static void setEngine(StorageEngine storageEngine) {
+		synchronized (defaultLock) {
+			engine = storageEngine;
+			defaultStorage = null;
+		}
+
+		synchronized (LStorage.class) {
+			preloadTask = null;
+		}
+
+		synchronized (namespaces) {
+			namespaces.clear();
+		}
+	}
+
+	/**
+	 * Get a namespaced storage, it is a separate file which is loaded on the first call and written independently.
+	 * Use it for a feature that writes often or has a lot of data, so it doesn't slow down the others.
+	 *
+	 * @param c
+	 * @param name
+	 * @return the storage
+	 */
+	public static LStorage namespace(Context c, String name) {
+		synchronized (namespaces) {
+			LStorage storage = namespaces.get(name);
+
+			if (storage == null) {
+				storage = open(c, DEFAULT_NAME + "_" + name);
+				namespaces.put(name, storage);
+			}
+			return storage;
+		}
+	}
+
+	/**
+	 * Get a namespaced storage, and move the keys starting with keyPrefix from the default storage to it.
+	 * The keys are not renamed. The move is done once, later calls return the storage only.
+	 * <p/>
+	 * Example Usage:
+	 * LStorage feed = LStorage.namespace(this, "feed", "feed.");
+	 * feed.getString("feed.lastId");
+	 *
+	 * @param c
+	 * @param name
+	 * @param keyPrefix
+	 * @return the storage
+	 */
+	public static LStorage namespace(Context c, String name, String keyPrefix) {
+		LStorage storage = namespace(c, name);
+		LStorage source = get(c);
+		String migratedKey = "__lstorage_migrated_" + name;
+
+		synchronized (namespaces) {
+			if (!source.getBoolean(migratedKey, false)) {
+				var moved = new HashMap<String, Object>();
+
+				for (Map.Entry<String, ?> entry : source.prefs.getAll().entrySet()) {
+					if (entry.getKey().startsWith(keyPrefix)) {
+						moved.put(entry.getKey(), source.resolve(entry.getValue()));
+					}
+				}
+
+				// Copy first, so a crash before the keys are removed only copies them again next time
+				Transaction copy = storage.edit();
+
+				for (Map.Entry<String, Object> entry : moved.entrySet()) {
+					if (entry.getValue() instanceof byte[]) {
+						// Packed array of LogStorage
+						copy.putPacked(entry.getKey(), (byte[]) entry.getValue());
+					} else {
+						copy.putAll(Collections.singletonMap(entry.getKey(), entry.getValue()));
+					}
+				}
+				copy.commit();
+
+				Transaction transaction = source.edit();
+
+				for (String key : moved.keySet()) {
+					transaction.remove(key);
+				}
+				transaction.put(migratedKey, true).commit();
+			}
+		}
+		return storage;
+	}
+
+	/**
+	 * Strings and String Sets longer than this are stored in their own files under L.getInternalFilesDir(),
+	 * so the main store stays small and loads fast. Default: 16384 chars
+	 *
+	 * @param chars Integer.MAX_VALUE to disable
+	 */
+	public static void setBlobThreshold(int chars) {
+		blobThreshold = chars;
+	}
+
+	/**
+	 * Max memory used to cache the values stored in files, default: 1 MB
+	 *
+	 * @param bytes
+	 */
+	public static void setBlobCacheSize(int bytes) {
+		BlobStore.setCacheSize(bytes);
+	}
+
+	static Context appContext(Context c) {
+		Context app = c.getApplicationContext();
+		return (app != null) ? app : c;
+	}
+
+	/**
+	 * @return the underlying SharedPreferences
+	 */
+	public SharedPreferences getPreferences() {
+		return prefs;
+	}
+
+	public void store(String key, String value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public String getString(String key) {
+		return getString(key, null);
+	}
+
+	public String getString(String key, String defaultValue) {
+		String value = prefs.getString(key, null);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		if (isPacked(value)) {
+			throw new ClassCastException(key + " is an array or list, not a String");
+		}
+
+		if (BlobStore.isRef(value)) {
+			String blob = blobs.readString(value);
+			return (blob != null) ? blob : defaultValue;
+		}
+		return value;
+	}
+
+	/**
+	 * Map a String which is stored in its own file (see setBlobThreshold()), without loading it into the heap
+	 *
+	 * @param key
+	 * @return the UTF-8 bytes, read-only. Return 'null' if the key doesn't exist or the value is not in a file.
+	 * @throws IOException
+	 */
+	public ByteBuffer getStringBuffer(String key) throws IOException {
+		String value = prefs.getString(key, null);
+
+		if (isPacked(value)) {
+			throw new ClassCastException(key + " is an array or list, not a String");
+		}
+		return BlobStore.isRef(value) ? blobs.map(value) : null;
+	}
+
+	public void store(String key, boolean value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return 'false' if the key doesn't exist.
+	 */
+	public boolean getBoolean(String key) {
+		return prefs.getBoolean(key, false);
+	}
+
+	public boolean getBoolean(String key, boolean defaultValue) {
+		return prefs.getBoolean(key, defaultValue);
+	}
+
+	public void store(String key, int value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return '-1' if the key doesn't exist.
+	 */
+	public int getInt(String key) {
+		return prefs.getInt(key, -1);
+	}
+
+	public int getInt(String key, int defaultValue) {
+		return prefs.getInt(key, defaultValue);
+	}
+
+	public void store(String key, float value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return '-1' if the key doesn't exist, '0' if it is not a float.
+	 */
+	public float getFloat(String key) {
+		return getFloat(key, -1);
+	}
+
+	public float getFloat(String key, float defaultValue) {
+		try {
+			return prefs.getFloat(key, defaultValue);
+		} catch (ClassCastException ex) {
+			return 0;
+		}
+	}
+
+	public void store(String key, long value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return '-1' if the key doesn't exist.
+	 */
+	public long getLong(String key) {
+		return prefs.getLong(key, -1);
+	}
+
+	public long getLong(String key, long defaultValue) {
+		return prefs.getLong(key, defaultValue);
+	}
+
+	@TargetApi(11)
+	public void store(String key, Set<String> value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	@TargetApi(11)
+	public Set<String> getStringSet(String key) {
+		Set<String> value = prefs.getStringSet(key, null);
+		return BlobStore.isRef(value) ? blobs.readSet(value.iterator().next()) : value;
+	}
+
+	public void store(String key, int[] value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public int[] getIntArray(String key) {
+		byte[] packed = getPacked(key);
+		return (packed != null) ? PackedValues.decodeIntArray(packed) : null;
+	}
+
+	public void store(String key, long[] value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public long[] getLongArray(String key) {
+		byte[] packed = getPacked(key);
+		return (packed != null) ? PackedValues.decodeLongArray(packed) : null;
+	}
+
+	public void store(String key, float[] value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public float[] getFloatArray(String key) {
+		byte[] packed = getPacked(key);
+		return (packed != null) ? PackedValues.decodeFloatArray(packed) : null;
+	}
+
+	public void store(String key, byte[] value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public byte[] getBytes(String key) {
+		byte[] packed = getPacked(key);
+		return (packed != null) ? PackedValues.decodeByteArray(packed) : null;
+	}
+
+	/**
+	 * Store an ordered list, unlike a String Set it keeps the order and duplicates
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void store(String key, List<String> value) {
+		edit().put(key, value).apply();
+	}
+
+	/**
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public List<String> getStringList(String key) {
+		byte[] packed = getPacked(key);
+		return (packed != null) ? PackedValues.decodeStringList(packed) : null;
+	}
+
+	/**
+	 * LogStorage stores the bytes as they are, SharedPreferences stores them as PACKED_PREFIX + Base64,
+	 * or a large one in a file of BlobStore.add(key, packed).
+	 * A value imported into LogStorage from SharedPreferences is still a String until it is written again.
+	 *
+	 * @return the bytes, null if the key doesn't exist
+	 * @throws ClassCastException if the value is not an array or list
+	 */
+	private byte[] getPacked(String key) {
+		if (prefs instanceof LogStorage) {
+			byte[] bytes = ((LogStorage) prefs).getBytes(key);
+
+			if (bytes != null) {
+				return bytes;
+			}
+		}
+
+		String value = prefs.getString(key, null);
+
+		if (value == null) {
+			return null;
+		}
+
+		byte[] packed = decodePacked(value);
+
+		if (packed == null) {
+			throw new ClassCastException(key + " is not an array or list");
+		}
+		return packed;
+	}
+
+	/**
+	 * @param value a raw String of the preferences
+	 * @return true if it is a packed array or list
+	 */
+	private static boolean isPacked(String value) {
+		return value != null && (value.startsWith(PACKED_PREFIX) || (BlobStore.isRef(value) && BlobStore.isPackedRef(value)));
+	}
+
+	/**
+	 * @param value a raw String of the preferences
+	 * @return the packed bytes, null if it is not a packed value, or its file is missing
+	 */
+	private byte[] decodePacked(String value) {
+		if (value.startsWith(PACKED_PREFIX)) {
+			return Base64.decode(value.substring(PACKED_PREFIX.length()), Base64.NO_WRAP);
+		}
+
+		if (BlobStore.isRef(value) && BlobStore.isPackedRef(value)) {
+			String encoded = blobs.readString(value);
+			return (encoded != null) ? Base64.decode(encoded, Base64.NO_WRAP) : null;
+		}
+		return null;
+	}
+
+	public boolean exists(String key) {
+		return prefs.contains(key);
+	}
+
+	public void remove(String key) {
+		edit().remove(key).apply();
+	}
+
+	/**
+	 * @param value a raw value of the preferences
+	 * @return the value, read from its file if it is a reference
+	 */
+	@SuppressWarnings("unchecked")
+	private Object resolve(Object value) {
+		if (value instanceof String && isPacked((String) value)) {
+			return decodePacked((String) value);
+		}
+
+		if (value instanceof String && BlobStore.isRef((String) value)) {
+			return blobs.readString((String) value);
+		}
+
+		if (value instanceof Set && BlobStore.isRef((Set<String>) value)) {
+			return blobs.readSet(((Set<String>) value).iterator().next());
+		}
+		return value;
+	}
+
+	/**
+	 * @return the reference stored for the key, null if its value is not in a file
+	 */
+	private String currentRef(String key) {
+		try {
+			String value = prefs.getString(key, null);
+			return BlobStore.isRef(value) ? value : null;
+		} catch (ClassCastException e) {
+			try {
+				Set<String> value = prefs.getStringSet(key, null);
+				return BlobStore.isRef(value) ? value.iterator().next() : null;
+			} catch (ClassCastException e2) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Start a transaction, all changes are written in one disk write when apply() or commit() is called
+	 *
+	 * @return the transaction
+	 */
+	public Transaction edit() {
+		return new Transaction(prefs.edit());
+	}
+
+	/**
+	 * Store all values in one disk write.
+	 * Supported types: String, Boolean, Integer, Float, Long, Set&lt;String&gt;, List&lt;String&gt;, int[], long[],
+	 * float[] and byte[], null removes the key.
+	 *
+	 * @param values
+	 */
+	public void storeAll(Map<String, ?> values) {
+		edit().putAll(values).apply();
+	}
+
 	/**
 	 * Store a String
 	 *
@@ -21,7 +619,7 @@ public class LStorage {
 	 * @param value
 	 */
 	public static void store(Context c, String key, String value) {
-		c.getSharedPreferences("Preference", 0).edit().putString(key, value).apply();
+		get(c).store(key, value);
 	}
 
 	/**
@@ -32,7 +630,7 @@ public class LStorage {
 	 * @return the value, return 'null' if the key doesn't exist.
 	 */
 	public static String getString(Context c, String key) {
-		return c.getSharedPreferences("Preference", 0).getString(key, null);
+		return get(c).getString(key);
 	}
 
 	/**
@@ -40,7 +638,7 @@ public class LStorage {
 	 * If the key exists, return the value, else return default value.
 	 */
 	public static String getString(Context c, String key, String defaultValue) {
-		return (exists(c, key)) ? getString(c, key) : defaultValue;
+		return get(c).getString(key, defaultValue);
 	}
 
 	/**
@@ -51,7 +649,7 @@ public class LStorage {
 	 * @param value
 	 */
 	public static void store(Context c, String key, boolean value) {
-		c.getSharedPreferences("Preference", 0).edit().putBoolean(key, value).apply();
+		get(c).store(key, value);
 	}
 
 	/**
@@ -62,11 +660,11 @@ public class LStorage {
 	 * @return the value, return 'null' if the key doesn't exist.
 	 */
 	public static boolean getBoolean(Context c, String key) {
-		return c.getSharedPreferences("Preference", 0).getBoolean(key, false);
+		return get(c).getBoolean(key);
 	}
 
 	public static boolean getBoolean(Context c, String key, boolean defaultValue) {
-		return (exists(c, key)) ? getBoolean(c, key) : defaultValue;
+		return get(c).getBoolean(key, defaultValue);
 	}
 
 	/**
@@ -77,7 +675,7 @@ public class LStorage {
 	 * @param value
 	 */
 	public static void store(Context c, String key, int value) {
-		c.getSharedPreferences("Preference", 0).edit().putInt(key, value).apply();
+		get(c).store(key, value);
 	}
 
 	/**
@@ -88,11 +686,11 @@ public class LStorage {
 	 * @return the value, return '-1' if the key doesn't exist.
 	 */
 	public static int getInt(Context c, String key) {
-		return c.getSharedPreferences("Preference", 0).getInt(key, -1);
+		return get(c).getInt(key);
 	}
 
 	public static int getInt(Context c, String key, int defaultValue) {
-		return (exists(c, key)) ? getInt(c, key) : defaultValue;
+		return get(c).getInt(key, defaultValue);
 	}
 
 	/**
@@ -103,7 +701,7 @@ public class LStorage {
 	 * @param value
 	 */
 	public static void store(Context c, String key, float value) {
-		c.getSharedPreferences("Preference", 0).edit().putFloat(key, value).apply();
+		get(c).store(key, value);
 	}
 
 	/**
@@ -114,15 +712,11 @@ public class LStorage {
 	 * @return the value, return 'null' if the key doesn't exist.
 	 */
 	public static float getFloat(Context c, String key) {
-		try {
-			return c.getSharedPreferences("Preference", 0).getFloat(key, -1);
-		} catch (ClassCastException ex) {
-			return 0;
-		}
+		return get(c).getFloat(key);
 	}
 
 	public static float getFloat(Context c, String key, float defaultValue) {
-		return (exists(c, key)) ? getFloat(c, key) : defaultValue;
+		return get(c).getFloat(key, defaultValue);
 	}
 
 
@@ -134,8 +728,7 @@ public class LStorage {
 	 * @param value
 	 */
 	public static void store(Context c, String key, long value) {
-		c.getSharedPreferences("Preference", 0).edit().putLong(key, value)
-			.commit();
+		get(c).store(key, value);
 	}
 
 	/**
@@ -146,11 +739,11 @@ public class LStorage {
 	 * @return the value, return 'null' if the key doesn't exist.
 	 */
 	public static long getLong(Context c, String key) {
-		return c.getSharedPreferences("Preference", 0).getLong(key, -1);
+		return get(c).getLong(key);
 	}
 
 	public static long getLong(Context c, String key, long defaultValue) {
-		return (exists(c, key)) ? getLong(c, key) : defaultValue;
+		return get(c).getLong(key, defaultValue);
 	}
 
 	/**
@@ -162,7 +755,7 @@ public class LStorage {
 	 */
 	@TargetApi(11)
 	public static void store(Context c, String key, Set<String> value) {
-		c.getSharedPreferences("Preference", 0).edit().putStringSet(key, value).apply();
+		get(c).store(key, value);
 	}
 
 	/**
@@ -174,7 +767,117 @@ public class LStorage {
 	 */
 	@TargetApi(11)
 	public static Set<String> getStringSet(Context c, String key) {
-		return c.getSharedPreferences("Preference", 0).getStringSet(key, null);
+		return get(c).getStringSet(key);
+	}
+
+	/**
+	 * Store a int array
+	 *
+	 * @param c
+	 * @param key
+	 * @param value
+	 */
+	public static void store(Context c, String key, int[] value) {
+		get(c).store(key, value);
+	}
+
+	/**
+	 * Retrieve a int array
+	 *
+	 * @param c
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public static int[] getIntArray(Context c, String key) {
+		return get(c).getIntArray(key);
+	}
+
+	/**
+	 * Store a long array
+	 *
+	 * @param c
+	 * @param key
+	 * @param value
+	 */
+	public static void store(Context c, String key, long[] value) {
+		get(c).store(key, value);
+	}
+
+	/**
+	 * Retrieve a long array
+	 *
+	 * @param c
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public static long[] getLongArray(Context c, String key) {
+		return get(c).getLongArray(key);
+	}
+
+	/**
+	 * Store a float array
+	 *
+	 * @param c
+	 * @param key
+	 * @param value
+	 */
+	public static void store(Context c, String key, float[] value) {
+		get(c).store(key, value);
+	}
+
+	/**
+	 * Retrieve a float array
+	 *
+	 * @param c
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public static float[] getFloatArray(Context c, String key) {
+		return get(c).getFloatArray(key);
+	}
+
+	/**
+	 * Store a byte array
+	 *
+	 * @param c
+	 * @param key
+	 * @param value
+	 */
+	public static void store(Context c, String key, byte[] value) {
+		get(c).store(key, value);
+	}
+
+	/**
+	 * Retrieve a byte array
+	 *
+	 * @param c
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public static byte[] getBytes(Context c, String key) {
+		return get(c).getBytes(key);
+	}
+
+	/**
+	 * Store a String List, the order and duplicates are kept
+	 *
+	 * @param c
+	 * @param key
+	 * @param value
+	 */
+	public static void store(Context c, String key, List<String> value) {
+		get(c).store(key, value);
+	}
+
+	/**
+	 * Retrieve a String List
+	 *
+	 * @param c
+	 * @param key
+	 * @return the value, return 'null' if the key doesn't exist.
+	 */
+	public static List<String> getStringList(Context c, String key) {
+		return get(c).getStringList(key);
 	}
 
 	/**
@@ -184,11 +887,324 @@ public class LStorage {
 	 * @return
 	 */
 	public static boolean exists(Context c, String key) {
-		return c.getSharedPreferences("Preference", 0).contains(key);
+		return get(c).exists(key);
 	}
 
     public static void remove(Context context, String key) {
-		context.getSharedPreferences("Preference", 0).edit().remove(key).apply();
+		get(context).remove(key);
     }
 
+	/**
+	 * Start a transaction on the default storage
+	 *
+	 * @param c
+	 * @return the transaction
+	 */
+	public static Transaction edit(Context c) {
+		return get(c).edit();
+	}
+
+	/**
+	 * Store all values in one disk write
+	 *
+	 * @param c
+	 * @param values
+	 */
+	public static void storeAll(Context c, Map<String, ?> values) {
+		get(c).storeAll(values);
+	}
+
+	/**
+	 * Transaction - Batch of changes written in one disk write
+	 * <p/>
+	 * Example Usage:
+	 * LStorage.edit(this)
+	 * .put("name", name)
+	 * .put("age", 18)
+	 * .apply();
+	 */
+	public class Transaction {
+
+		private final SharedPreferences.Editor editor;
+
+		/**
+		 * Key to the reference of the file written by this transaction, or null if its value is not in a file
+		 */
+		private final Map<String, String> newRefs = new HashMap<>();
+
+		/**
+		 * Files replaced by this transaction, deleted after it is written
+		 */
+		private final Set<String> oldRefs = new HashSet<>();
+
+		/**
+		 * Files added by this transaction
+		 */
+		private final List<String> newFiles = new ArrayList<>();
+
+		Transaction(SharedPreferences.Editor editor) {
+			this.editor = editor;
+		}
+
+		public Transaction put(String key, String value) {
+			// A small value with a reserved prefix is stored in a file too, so it is never read as a reference or array
+			if (value != null && (value.length() > blobThreshold
+					|| value.startsWith(BlobStore.REF_PREFIX) || value.startsWith(PACKED_PREFIX))) {
+				String ref = blobs.add(key, value);
+				editor.putString(key, ref);
+				replaceBlob(key, ref);
+				return this;
+			}
+
+			editor.putString(key, value);
+			replaceBlob(key, null);
+			return this;
+		}
+
+		public Transaction put(String key, boolean value) {
+			editor.putBoolean(key, value);
+			replaceBlob(key, null);
+			return this;
+		}
+
+		public Transaction put(String key, int value) {
+			editor.putInt(key, value);
+			replaceBlob(key, null);
+			return this;
+		}
+
+		public Transaction put(String key, float value) {
+			editor.putFloat(key, value);
+			replaceBlob(key, null);
+			return this;
+		}
+
+		public Transaction put(String key, long value) {
+			editor.putLong(key, value);
+			replaceBlob(key, null);
+			return this;
+		}
+
+		@TargetApi(11)
+		public Transaction put(String key, Set<String> value) {
+			if (value != null && (charCount(value) > blobThreshold || BlobStore.isRef(value))) {
+				String ref = blobs.add(key, value);
+				var refSet = new HashSet<String>();
+				refSet.add(ref);
+				editor.putStringSet(key, refSet);
+				replaceBlob(key, ref);
+				return this;
+			}
+
+			editor.putStringSet(key, value);
+			replaceBlob(key, null);
+			return this;
+		}
+
+		public Transaction put(String key, int[] value) {
+			return putPacked(key, (value == null) ? null : PackedValues.encode(value));
+		}
+
+		public Transaction put(String key, long[] value) {
+			return putPacked(key, (value == null) ? null : PackedValues.encode(value));
+		}
+
+		public Transaction put(String key, float[] value) {
+			return putPacked(key, (value == null) ? null : PackedValues.encode(value));
+		}
+
+		public Transaction put(String key, byte[] value) {
+			return putPacked(key, (value == null) ? null : PackedValues.encode(value));
+		}
+
+		public Transaction put(String key, List<String> value) {
+			return putPacked(key, (value == null) ? null : PackedValues.encode(value));
+		}
+
+		Transaction putPacked(String key, byte[] packed) {
+			if (packed == null) {
+				return remove(key);
+			}
+
+			if (editor instanceof LogStorage.Editor) {
+				((LogStorage.Editor) editor).putBytes(key, packed);
+				replaceBlob(key, null);
+				return this;
+			}
+
+			String encoded = Base64.encodeToString(packed, Base64.NO_WRAP);
+
+			if (PACKED_PREFIX.length() + encoded.length() > blobThreshold) {
+				// A large one is stored in its own file, the file type marks it as packed
+				String ref = blobs.addPacked(key, encoded);
+				editor.putString(key, ref);
+				replaceBlob(key, ref);
+				return this;
+			}
+
+			editor.putString(key, PACKED_PREFIX + encoded);
+			replaceBlob(key, null);
+			return this;
+		}
+
+		private long charCount(Set<String> value) {
+			long count = 0;
+
+			for (String item : value) {
+				count += item.length();
+			}
+			return count;
+		}
+
+		/**
+		 * Remember the file which the new value of the key replaces
+		 *
+		 * @param key
+		 * @param newRef the reference of the new value, null if it is not in a file
+		 */
+		private void replaceBlob(String key, String newRef) {
+			String oldRef = newRefs.containsKey(key) ? newRefs.get(key) : currentRef(key);
+
+			if (oldRef != null) {
+				oldRefs.add(oldRef);
+			}
+
+			if (newRef != null) {
+				newFiles.add(newRef);
+			}
+			newRefs.put(key, newRef);
+		}
+
+		/**
+		 * @param values String, Boolean, Integer, Float, Long, Set&lt;String&gt;, List&lt;String&gt;, int[], long[], float[] or byte[],
+		 *               null removes the key
+		 * @return this
+		 */
+		@SuppressWarnings("unchecked")
+		public Transaction putAll(Map<String, ?> values) {
+			for (Map.Entry<String, ?> entry : values.entrySet()) {
+				String key = entry.getKey();
+				Object value = entry.getValue();
+
+				if (value == null) {
+					remove(key);
+				} else if (value instanceof String) {
+					put(key, (String) value);
+				} else if (value instanceof Boolean) {
+					put(key, (boolean) (Boolean) value);
+				} else if (value instanceof Integer) {
+					put(key, (int) (Integer) value);
+				} else if (value instanceof Float) {
+					put(key, (float) (Float) value);
+				} else if (value instanceof Long) {
+					put(key, (long) (Long) value);
+				} else if (value instanceof Set) {
+					put(key, (Set<String>) value);
+				} else if (value instanceof List) {
+					put(key, (List<String>) value);
+				} else if (value instanceof int[]) {
+					put(key, (int[]) value);
+				} else if (value instanceof long[]) {
+					put(key, (long[]) value);
+				} else if (value instanceof float[]) {
+					put(key, (float[]) value);
+				} else if (value instanceof byte[]) {
+					put(key, (byte[]) value);
+				} else {
+					throw new IllegalArgumentException("Unsupported type of " + key + ": " + value.getClass().getName());
+				}
+			}
+			return this;
+		}
+
+		public Transaction remove(String key) {
+			editor.remove(key);
+			replaceBlob(key, null);
+			return this;
+		}
+
+		/**
+		 * Remove all keys, it is done before the other changes of this transaction
+		 *
+		 * @return this
+		 */
+		public Transaction clear() {
+			editor.clear();
+
+			for (String key : prefs.getAll().keySet()) {
+				if (!newRefs.containsKey(key)) {
+					String oldRef = currentRef(key);
+
+					if (oldRef != null) {
+						oldRefs.add(oldRef);
+					}
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Write in the background, the changes are visible to getX() immediately.
+		 * New files are written and replaced ones are deleted in the background too.
+		 */
+		public void apply() {
+			editor.apply();
+
+			boolean hasFiles = !newFiles.isEmpty() || !oldRefs.isEmpty();
+			var replaced = new ArrayList<String>(oldRefs);
+			reset();
+
+			if (!hasFiles) {
+				return;
+			}
+
+			BlobStore.execute(() -> {
+				try {
+					blobs.writePending();
+				} catch (IOException e) {
+					L.log("LStorage: " + e);
+					return;
+				}
+
+				// An empty commit() returns after the changes applied before it are written
+				if (prefs.edit().commit()) {
+					blobs.delete(replaced);
+				}
+			});
+		}
+
+		/**
+		 * Write to disk before returning, don't call it on the main thread
+		 *
+		 * @return true if the changes are written
+		 */
+		public boolean commit() {
+			try {
+				// Files first, so a written reference never points to a missing file
+				blobs.writePending();
+			} catch (IOException e) {
+				L.log("LStorage: " + e);
+				blobs.delete(newFiles);
+				reset();
+				return false;
+			}
+
+			boolean written = editor.commit();
+
+			if (written) {
+				blobs.delete(oldRefs);
+			}
+
+			reset();
+			return written;
+		}
+
+		private void reset() {
+			newRefs.clear();
+			oldRefs.clear();
+			newFiles.clear();
+		}
+
+	}
+
 }
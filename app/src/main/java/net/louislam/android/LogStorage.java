@@ -0,0 +1,804 @@
+package net.louislam.android;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * LogStorage - SharedPreferences on an append-only, memory-mapped log
+ * <p/>
+ * Each apply() / commit() appends one frame with the changed keys only, so the cost of a change depends on the size
+ * of the change, not the size of the store. All values are indexed in memory, reads don't touch the file.
+ * apply() writes to the mapped file and the OS flushes it, commit() also forces it to disk.
+ * <p/>
+ * A frame is [payload length][CRC32 of payload][ops]. A frame torn by a crash fails the check, and it is discarded
+ * with everything after it when the log is loaded. When most of the log is overwritten values, it is rewritten in
+ * the background.
+ * <p/>
+ * Example Usage:
+ * LStorage.setEngine(StorageEngine.LOG);
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class LogStorage implements SharedPreferences {
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC = 0x4C535431;
+	private static final int HEADER_SIZE = 4;
+	private static final int FRAME_HEADER_SIZE = 8;
+	private static final int MIN_CAPACITY = 64 * 1024;
+
+	/**
+	 * Compact when the log is larger than this and more than half of it is garbage
+	 */
+	private static final int COMPACT_MIN_SIZE = 256 * 1024;
+
+	private static final byte OP_REMOVE = 0;
+	private static final byte OP_STRING = 1;
+	private static final byte OP_BOOLEAN = 2;
+	private static final byte OP_INT = 3;
+	private static final byte OP_FLOAT = 4;
+	private static final byte OP_LONG = 5;
+	private static final byte OP_STRING_SET = 6;
+	private static final byte OP_CLEAR = 7;
+	private static final byte OP_BYTES = 8;
+
+	private static final Object REMOVED = new Object();
+
+	private static final Map<String, LogStorage> instances = new HashMap<>();
+	private static ExecutorService compactExecutor;
+
+	private final File file;
+	private final HashMap<String, Object> values = new HashMap<>();
+	private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private int capacity;
+	private int end;
+	private long liveBytes;
+	private boolean compacting = false;
+
+	/**
+	 * Frames appended while compacting, they are copied to the new log
+	 */
+	private List<byte[]> backlog;
+
+	private LogStorage(File file) throws IOException {
+		this.file = file;
+		load();
+	}
+
+	/**
+	 * Open the store of the name under L.getInternalFilesDir().
+	 * When it is created, the SharedPreferences file of the same name is imported, and the old file is left untouched.
+	 * An IllegalStateException is thrown if the import can't be written.
+	 *
+	 * @param c
+	 * @param name
+	 * @return the store, one instance per file
+	 */
+	public static LogStorage open(Context c, String name) {
+		File file = new File(L.getInternalFilesDir(c), name + ".lstore");
+
+		synchronized (instances) {
+			LogStorage storage = instances.get(file.getPath());
+
+			if (storage == null) {
+				if (!file.exists()) {
+					try {
+						importLog(file, c.getSharedPreferences(name, 0).getAll());
+					} catch (IOException e) {
+						throw new IllegalStateException("Cannot import " + name + " into " + file, e);
+					}
+				}
+				storage = open(file);
+			}
+			return storage;
+		}
+	}
+
+	/**
+	 * @param file
+	 * @return the store, one instance per file
+	 */
+	public static LogStorage open(File file) {
+		synchronized (instances) {
+			LogStorage storage = instances.get(file.getPath());
+
+			if (storage == null) {
+				try {
+					storage = new LogStorage(file);
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot open " + file, e);
+				}
+				instances.put(file.getPath(), storage);
+			}
+			return storage;
+		}
+	}
+
+	/**
+	 * Write the values as a new log. It is built in a temporary file and renamed after it is on disk,
+	 * so an import interrupted by a crash leaves no log, and it is run again on the next open.
+	 */
+	private static void importLog(File file, Map<String, ?> values) throws IOException {
+		File tmp = new File(file.getPath() + ".import");
+
+		try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+			var out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			out.writeInt(MAGIC);
+
+			if (!values.isEmpty()) {
+				var bytes = new ByteArrayOutputStream();
+				var ops = new DataOutputStream(bytes);
+
+				for (Map.Entry<String, ?> entry : values.entrySet()) {
+					writeOp(ops, entry.getKey(), entry.getValue());
+				}
+				writeFrame(out, bytes.toByteArray());
+			}
+
+			out.flush();
+			fileOut.getFD().sync();
+		} catch (IOException | RuntimeException e) {
+			tmp.delete();
+			throw e;
+		}
+
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Cannot rename " + tmp + " to " + file);
+		}
+	}
+
+	/**
+	 * @return size of the log in bytes
+	 */
+	public synchronized int getLogSize() {
+		return end;
+	}
+
+	@Override
+	public synchronized Map<String, ?> getAll() {
+		return new HashMap<>(values);
+	}
+
+	@Override
+	public synchronized String getString(String key, String defValue) {
+		Object value = values.get(key);
+		return (value != null) ? (String) value : defValue;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+		Object value = values.get(key);
+		return (value != null) ? (Set<String>) value : defValues;
+	}
+
+	@Override
+	public synchronized int getInt(String key, int defValue) {
+		Object value = values.get(key);
+		return (value != null) ? (Integer) value : defValue;
+	}
+
+	@Override
+	public synchronized long getLong(String key, long defValue) {
+		Object value = values.get(key);
+		return (value != null) ? (Long) value : defValue;
+	}
+
+	@Override
+	public synchronized float getFloat(String key, float defValue) {
+		Object value = values.get(key);
+		return (value != null) ? (Float) value : defValue;
+	}
+
+	@Override
+	public synchronized boolean getBoolean(String key, boolean defValue) {
+		Object value = values.get(key);
+		return (value != null) ? (Boolean) value : defValue;
+	}
+
+	/**
+	 * Bytes are stored as they are, SharedPreferences doesn't have this type
+	 *
+	 * @param key
+	 * @return the value, null if the key doesn't exist or its value is not bytes
+	 */
+	synchronized byte[] getBytes(String key) {
+		Object value = values.get(key);
+		return (value instanceof byte[]) ? (byte[]) value : null;
+	}
+
+	@Override
+	public synchronized boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public SharedPreferences.Editor edit() {
+		return new Editor();
+	}
+
+	@Override
+	public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+		synchronized (listeners) {
+			listeners.put(listener, REMOVED);
+		}
+	}
+
+	@Override
+	public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+		synchronized (listeners) {
+			listeners.remove(listener);
+		}
+	}
+
+	/**
+	 * Apply the changes to memory and append them as one frame
+	 *
+	 * @param changes value, or REMOVED
+	 * @param clear   remove all keys before the changes
+	 * @param sync    force the file to disk
+	 * @return false if the changes are not written to the file
+	 */
+	private boolean write(Map<String, Object> changes, boolean clear, boolean sync) {
+		var changedKeys = new ArrayList<String>();
+		boolean written = true;
+
+		synchronized (this) {
+			var bytes = new ByteArrayOutputStream();
+			var out = new DataOutputStream(bytes);
+			boolean clearing = clear && !values.isEmpty();
+
+			// Key to the new value, or null if it is removed
+			var applied = new LinkedHashMap<String, Object>();
+			boolean appended = false;
+
+			try {
+				if (clearing) {
+					changedKeys.addAll(values.keySet());
+					out.writeByte(OP_CLEAR);
+				}
+
+				for (Map.Entry<String, Object> change : changes.entrySet()) {
+					String key = change.getKey();
+					Object value = change.getValue();
+					Object current = clearing ? null : values.get(key);
+
+					if (value == REMOVED) {
+						if (current == null) {
+							continue;
+						}
+						out.writeByte(OP_REMOVE);
+						writeString(out, key);
+						applied.put(key, null);
+					} else {
+						if (value.equals(current)
+								|| (value instanceof byte[] && current instanceof byte[] && Arrays.equals((byte[]) value, (byte[]) current))) {
+							continue;
+						}
+						writeOp(out, key, value);
+						applied.put(key, value);
+					}
+
+					if (!changedKeys.contains(key)) {
+						changedKeys.add(key);
+					}
+				}
+
+				if (bytes.size() > 0) {
+					append(bytes.toByteArray());
+
+					// Memory is changed only after the frame is in the log, so a failed append leaves both as they were
+					if (clearing) {
+						values.clear();
+						liveBytes = 0;
+					}
+
+					for (Map.Entry<String, Object> change : applied.entrySet()) {
+						set(change.getKey(), change.getValue());
+					}
+					appended = true;
+
+					if (sync) {
+						buffer.force();
+					}
+				}
+			} catch (IOException e) {
+				L.log("LogStorage: " + e);
+				written = false;
+
+				if (!appended) {
+					changedKeys.clear();
+				}
+			}
+		}
+
+		compactIfNeeded();
+		notifyListeners(changedKeys);
+		return written;
+	}
+
+	private void set(String key, Object value) {
+		Object old = (value == null) ? values.remove(key) : values.put(key, value);
+
+		if (old != null) {
+			liveBytes -= opSize(key, old);
+		}
+
+		if (value != null) {
+			liveBytes += opSize(key, value);
+		}
+	}
+
+	private void append(byte[] payload) throws IOException {
+		int size = FRAME_HEADER_SIZE + payload.length;
+		ensureCapacity((long) end + size);
+
+		buffer.putInt(end + 4, crc(payload));
+		buffer.position(end + FRAME_HEADER_SIZE);
+		buffer.put(payload);
+
+		// The length is written last, a frame without it is the end of the log
+		buffer.putInt(end, payload.length);
+		end += size;
+
+		if (backlog != null) {
+			backlog.add(payload);
+		}
+	}
+
+	private void ensureCapacity(long needed) throws IOException {
+		if (needed <= capacity) {
+			return;
+		}
+
+		long newCapacity = capacity;
+
+		while (newCapacity < needed) {
+			newCapacity *= 2;
+		}
+
+		if (newCapacity > Integer.MAX_VALUE) {
+			throw new IOException("Storage is full");
+		}
+		map((int) newCapacity);
+	}
+
+	private void map(int newCapacity) throws IOException {
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+		capacity = newCapacity;
+	}
+
+	private void load() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+
+		// Read-only, so the scan doesn't extend the file
+		capacity = (int) Math.min(raf.length(), Integer.MAX_VALUE / 2);
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, capacity);
+		boolean valid = capacity >= HEADER_SIZE && buffer.getInt(0) == MAGIC;
+		int position = HEADER_SIZE;
+
+		while (valid && position + FRAME_HEADER_SIZE <= capacity) {
+			int size = buffer.getInt(position);
+
+			if (size <= 0 || size > capacity - position - FRAME_HEADER_SIZE) {
+				break;
+			}
+
+			byte[] payload = new byte[size];
+			buffer.position(position + FRAME_HEADER_SIZE);
+			buffer.get(payload);
+
+			if (crc(payload) != buffer.getInt(position + 4)) {
+				break;
+			}
+
+			try {
+				replay(payload);
+			} catch (RuntimeException e) {
+				break;
+			}
+			position += FRAME_HEADER_SIZE + size;
+		}
+
+		end = position;
+
+		// The mapping is sized from the end of the log, not the file length, and the unused tail of the file is cut
+		int newCapacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(end) * 2);
+
+		if (raf.length() > newCapacity) {
+			raf.setLength(newCapacity);
+		}
+		map(newCapacity);
+
+		if (!valid) {
+			zero(0);
+			buffer.putInt(0, MAGIC);
+			buffer.force();
+			return;
+		}
+
+		// Clear a torn frame, so its bytes can't be read as part of a later frame
+		for (int i = end; i < capacity; i++) {
+			if (buffer.get(i) != 0) {
+				zero(end);
+				buffer.force();
+				break;
+			}
+		}
+	}
+
+	private void zero(int from) {
+		for (int i = from; i < capacity; i++) {
+			buffer.put(i, (byte) 0);
+		}
+	}
+
+	private void replay(byte[] payload) {
+		ByteBuffer in = ByteBuffer.wrap(payload);
+
+		while (in.hasRemaining()) {
+			byte op = in.get();
+
+			if (op == OP_CLEAR) {
+				values.clear();
+				liveBytes = 0;
+				continue;
+			}
+
+			String key = readString(in);
+			set(key, readValue(op, in));
+		}
+	}
+
+	private void compactIfNeeded() {
+		synchronized (this) {
+			if (compacting || end < COMPACT_MIN_SIZE || end - HEADER_SIZE < liveBytes * 2) {
+				return;
+			}
+			compacting = true;
+		}
+
+		synchronized (LogStorage.class) {
+			if (compactExecutor == null) {
+				compactExecutor = Executors.newSingleThreadExecutor(r -> {
+					Thread thread = new Thread(r, "L-storage");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			compactExecutor.execute(this::compact);
+		}
+	}
+
+	/**
+	 * Rewrite the log with the current values only, then swap it in
+	 */
+	void compact() {
+		HashMap<String, Object> snapshot;
+
+		synchronized (this) {
+			snapshot = new HashMap<>(values);
+			backlog = new ArrayList<>();
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+
+		try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+			var out = new DataOutputStream(new BufferedOutputStream(fileOut));
+			out.writeInt(MAGIC);
+
+			if (!snapshot.isEmpty()) {
+				var bytes = new ByteArrayOutputStream();
+				var ops = new DataOutputStream(bytes);
+
+				for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+					writeOp(ops, entry.getKey(), entry.getValue());
+				}
+				writeFrame(out, bytes.toByteArray());
+			}
+
+			// The snapshot is written and synced without the lock, so reads and writes go on meanwhile
+			out.flush();
+			fileOut.getFD().sync();
+
+			synchronized (this) {
+				// Only the frames appended since the snapshot are synced under the lock
+				for (byte[] payload : backlog) {
+					writeFrame(out, payload);
+				}
+
+				out.flush();
+				fileOut.getFD().sync();
+
+				if (!tmp.renameTo(file)) {
+					throw new IOException("Cannot replace " + file);
+				}
+
+				RandomAccessFile oldFile = raf;
+				raf = new RandomAccessFile(file, "rw");
+				end = (int) raf.length();
+				map(Math.max(MIN_CAPACITY, Integer.highestOneBit(end) * 2));
+				oldFile.close();
+
+				backlog = null;
+				compacting = false;
+			}
+		} catch (IOException e) {
+			L.log("LogStorage: " + e);
+			tmp.delete();
+
+			synchronized (this) {
+				backlog = null;
+				compacting = false;
+			}
+		}
+	}
+
+	private void notifyListeners(List<String> changedKeys) {
+		final List<OnSharedPreferenceChangeListener> targets;
+
+		synchronized (listeners) {
+			if (listeners.isEmpty() || changedKeys.isEmpty()) {
+				return;
+			}
+			targets = new ArrayList<>(listeners.keySet());
+		}
+
+		L.runOnMainThread(() -> {
+			for (String key : changedKeys) {
+				for (OnSharedPreferenceChangeListener listener : targets) {
+					listener.onSharedPreferenceChanged(this, key);
+				}
+			}
+		});
+	}
+
+	private static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+		out.writeInt(payload.length);
+		out.writeInt(crc(payload));
+		out.write(payload);
+	}
+
+	private static int crc(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void writeOp(DataOutputStream out, String key, Object value) throws IOException {
+		if (value instanceof String) {
+			out.writeByte(OP_STRING);
+			writeString(out, key);
+			writeString(out, (String) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte(OP_BOOLEAN);
+			writeString(out, key);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(OP_INT);
+			writeString(out, key);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Float) {
+			out.writeByte(OP_FLOAT);
+			writeString(out, key);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Long) {
+			out.writeByte(OP_LONG);
+			writeString(out, key);
+			out.writeLong((Long) value);
+		} else if (value instanceof Set) {
+			Set<String> set = (Set<String>) value;
+			out.writeByte(OP_STRING_SET);
+			writeString(out, key);
+			out.writeInt(set.size());
+
+			for (String item : set) {
+				writeString(out, item);
+			}
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			out.writeByte(OP_BYTES);
+			writeString(out, key);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		} else {
+			throw new IllegalArgumentException("Unsupported type of " + key + ": " + value.getClass().getName());
+		}
+	}
+
+	private static Object readValue(byte op, ByteBuffer in) {
+		switch (op) {
+			case OP_REMOVE:
+				return null;
+			case OP_STRING:
+				return readString(in);
+			case OP_BOOLEAN:
+				return in.get() != 0;
+			case OP_INT:
+				return in.getInt();
+			case OP_FLOAT:
+				return in.getFloat();
+			case OP_LONG:
+				return in.getLong();
+			case OP_STRING_SET:
+				int count = in.getInt();
+				var set = new HashSet<String>(count * 2);
+
+				for (int i = 0; i < count; i++) {
+					set.add(readString(in));
+				}
+				return set;
+			case OP_BYTES:
+				byte[] bytes = new byte[in.getInt()];
+				in.get(bytes);
+				return bytes;
+			default:
+				throw new IllegalStateException("Unknown op: " + op);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getInt();
+		String value = new String(in.array(), in.position(), length, UTF_8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	/**
+	 * @return bytes of the op in a frame
+	 */
+	@SuppressWarnings("unchecked")
+	private static long opSize(String key, Object value) {
+		long size = 1 + 4 + utf8Length(key);
+
+		if (value instanceof String) {
+			size += 4 + utf8Length((String) value);
+		} else if (value instanceof Boolean) {
+			size += 1;
+		} else if (value instanceof Long) {
+			size += 8;
+		} else if (value instanceof byte[]) {
+			size += 4 + ((byte[]) value).length;
+		} else if (value instanceof Set) {
+			size += 4;
+
+			for (String item : (Set<String>) value) {
+				size += 4 + utf8Length(item);
+			}
+		} else {
+			size += 4;
+		}
+		return size;
+	}
+
+	private static int utf8Length(String value) {
+		int length = 0;
+
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+
+			if (ch < 0x80) {
+				length++;
+			} else if (ch < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(ch)) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	class Editor implements SharedPreferences.Editor {
+
+		private final HashMap<String, Object> changes = new HashMap<>();
+		private boolean clear = false;
+
+		private synchronized Editor put(String key, Object value) {
+			changes.put(key, (value == null) ? REMOVED : value);
+			return this;
+		}
+
+		Editor putBytes(String key, byte[] value) {
+			return put(key, (value == null) ? null : value.clone());
+		}
+
+		@Override
+		public Editor putString(String key, String value) {
+			return put(key, value);
+		}
+
+		@Override
+		@TargetApi(11)
+		public Editor putStringSet(String key, Set<String> values) {
+			return put(key, (values == null) ? null : new HashSet<>(values));
+		}
+
+		@Override
+		public Editor putInt(String key, int value) {
+			return put(key, value);
+		}
+
+		@Override
+		public Editor putLong(String key, long value) {
+			return put(key, value);
+		}
+
+		@Override
+		public Editor putFloat(String key, float value) {
+			return put(key, value);
+		}
+
+		@Override
+		public Editor putBoolean(String key, boolean value) {
+			return put(key, value);
+		}
+
+		@Override
+		public Editor remove(String key) {
+			return put(key, null);
+		}
+
+		@Override
+		public synchronized Editor clear() {
+			clear = true;
+			return this;
+		}
+
+		@Override
+		public synchronized boolean commit() {
+			boolean written = write(changes, clear, true);
+			changes.clear();
+			clear = false;
+			return written;
+		}
+
+		@Override
+		public synchronized void apply() {
+			write(changes, clear, false);
+			changes.clear();
+			clear = false;
+		}
+
+	}
+
+}
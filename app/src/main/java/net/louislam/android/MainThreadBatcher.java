@@ -0,0 +1,56 @@
+package net.louislam.android;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Run tasks on the main thread, all tasks posted before the next frame are run together
+ */
+class MainThreadBatcher {
+
+	private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	void post(Runnable r) {
+		queue.add(r);
+
+		if (!scheduled.compareAndSet(false, true)) {
+			return;
+		}
+
+		handler.post(() -> {
+			if (Build.VERSION.SDK_INT >= 16) {
+				// Choreographer.getInstance() must be called on the main thread
+				Choreographer.getInstance().postFrameCallback(frameTimeNanos -> drain());
+			} else {
+				drain();
+			}
+		});
+	}
+
+	/**
+	 * An exception from a task is not caught, it is thrown on the main thread like one from Handler.post().
+	 * The tasks after it are posted again and run after it.
+	 */
+	private void drain() {
+		scheduled.set(false);
+		Runnable r;
+
+		try {
+			while ((r = queue.poll()) != null) {
+				r.run();
+			}
+		} finally {
+			if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+				handler.post(this::drain);
+			}
+		}
+	}
+
+}
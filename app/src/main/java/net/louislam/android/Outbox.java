@@ -0,0 +1,363 @@
+package net.louislam.android;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import okhttp3.FormBody;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Outbox - POST requests that survive offline periods and app restarts
+ * <p/>
+ * Requests are appended to a journal file under L.getInternalFilesDir(), and a background worker sends them
+ * in order with exponential backoff and jitter. Each request has an idempotency key, which is sent as the
+ * "Idempotency-Key" header. A key is only queued once while it is pending, and for 24 hours after it is delivered.
+ * <p/>
+ * Example Usage:
+ * L.postToOutbox(this, "https://example.com/api", data);
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class Outbox {
+
+	private static final long BASE_BACKOFF_MS = 1000;
+	private static final long MAX_BACKOFF_MS = 10 * 60 * 1000;
+
+	/**
+	 * Rewrite the journal when this many records are delivered since the last rewrite
+	 */
+	private static final int COMPACT_THRESHOLD = 100;
+
+	/**
+	 * How long a delivered key is remembered, so posting it again is ignored
+	 */
+	private static final long DELIVERED_TTL_MS = 24 * 60 * 60 * 1000;
+	private static final int MAX_DELIVERED = 10000;
+
+	private static Outbox instance;
+
+	private final File journal;
+	private final LinkedHashMap<String, JSONObject> pending = new LinkedHashMap<>();
+	/**
+	 * Delivered key to the delivery time, oldest first
+	 */
+	private final LinkedHashMap<String, Long> delivered = new LinkedHashMap<>();
+	private final Random random = new Random();
+
+	private Writer writer;
+	private Thread worker;
+	private int attempt = 0;
+	private int deliveredSinceCompact = 0;
+	private boolean wakeUp = false;
+
+	Outbox(File journal) {
+		this.journal = journal;
+		load();
+	}
+
+	/**
+	 * @param c
+	 * @return the outbox of the app
+	 */
+	public static synchronized Outbox getInstance(Context c) {
+		if (instance == null) {
+			instance = new Outbox(new File(L.getInternalFilesDir(c.getApplicationContext()), "outbox.journal"));
+		}
+		return instance;
+	}
+
+	/**
+	 * Queue a POST request with FormBody data
+	 *
+	 * @param url
+	 * @param data
+	 * @return the idempotency key
+	 */
+	public String post(String url, Map<String, String> data) {
+		String key = UUID.randomUUID().toString();
+		post(url, data, key);
+		return key;
+	}
+
+	/**
+	 * Queue a POST request, ignored if the key is already queued or delivered in the last 24 hours
+	 *
+	 * @param url
+	 * @param data
+	 * @param key  idempotency key
+	 */
+	public synchronized void post(String url, Map<String, String> data, String key) {
+		if (pending.containsKey(key) || delivered.containsKey(key)) {
+			return;
+		}
+
+		JSONObject record = new JSONObject();
+
+		try {
+			record.put("op", "add");
+			record.put("key", key);
+			record.put("url", url);
+			record.put("data", new JSONObject(data == null ? new HashMap<String, String>() : data));
+		} catch (JSONException e) {
+			throw new IllegalArgumentException(e);
+		}
+
+		append(record);
+		pending.put(key, record);
+		startWorker();
+		notifyAll();
+	}
+
+	/**
+	 * @return number of requests not yet delivered
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Reset the backoff and try to send now, e.g. when the network is back
+	 */
+	public synchronized void retryNow() {
+		attempt = 0;
+		wakeUp = true;
+		notifyAll();
+	}
+
+	private void startWorker() {
+		if (worker != null) {
+			return;
+		}
+
+		worker = new Thread(this::work, "L-outbox");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	private void work() {
+		while (true) {
+			String key;
+			JSONObject record;
+
+			synchronized (this) {
+				while (pending.isEmpty()) {
+					waitQuietly(0);
+				}
+
+				Map.Entry<String, JSONObject> first = pending.entrySet().iterator().next();
+				key = first.getKey();
+				record = first.getValue();
+			}
+
+			if (send(key, record)) {
+				synchronized (this) {
+					attempt = 0;
+					markDelivered(key);
+				}
+			} else {
+				synchronized (this) {
+					long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt, 20));
+					attempt++;
+
+					// Jitter, wait between 50% and 100% of the backoff
+					long delay = backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+					long until = System.currentTimeMillis() + delay;
+					wakeUp = false;
+
+					while (!wakeUp && System.currentTimeMillis() < until) {
+						waitQuietly(Math.max(1, until - System.currentTimeMillis()));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if it is delivered, or it would never succeed (4xx)
+	 */
+	private boolean send(String key, JSONObject record) {
+		var bodyBuilder = new FormBody.Builder();
+
+		try {
+			JSONObject data = record.getJSONObject("data");
+			Iterator<?> names = data.keys();
+
+			while (names.hasNext()) {
+				String name = (String) names.next();
+				bodyBuilder.add(name, data.getString(name));
+			}
+
+			Request request = new Request.Builder()
+					.url(record.getString("url"))
+					.header("Idempotency-Key", key)
+					.post(bodyBuilder.build())
+					.build();
+
+			try (Response response = L.getHttpClient().newCall(request).execute()) {
+				int code = response.code();
+
+				if (code >= 400 && code < 500 && code != 408 && code != 429) {
+					L.log("Outbox: drop " + key + ", HTTP " + code);
+					return true;
+				}
+				return response.isSuccessful();
+			}
+		} catch (JSONException | IllegalArgumentException e) {
+			L.log("Outbox: drop " + key + ", " + e);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void markDelivered(String key) {
+		JSONObject record = new JSONObject();
+
+		try {
+			record.put("op", "done");
+			record.put("key", key);
+			record.put("time", System.currentTimeMillis());
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		}
+
+		append(record);
+		pending.remove(key);
+		delivered.put(key, record.optLong("time"));
+		deliveredSinceCompact++;
+
+		if (deliveredSinceCompact >= COMPACT_THRESHOLD) {
+			compact();
+		}
+	}
+
+	private void append(JSONObject record) {
+		try {
+			if (writer == null) {
+				writer = new OutputStreamWriter(new FileOutputStream(journal, true), "UTF-8");
+			}
+
+			writer.write(record.toString() + "\n");
+			writer.flush();
+		} catch (IOException e) {
+			L.log("Outbox: " + e);
+		}
+	}
+
+	/**
+	 * Rewrite the journal with pending requests and the delivered keys which are not expired
+	 */
+	private void compact() {
+		File tmp = new File(journal.getPath() + ".tmp");
+		removeExpiredDelivered();
+
+		try (Writer tmpWriter = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8")) {
+			for (Map.Entry<String, Long> entry : delivered.entrySet()) {
+				JSONObject record = new JSONObject();
+				record.put("op", "done");
+				record.put("key", entry.getKey());
+				record.put("time", (long) entry.getValue());
+				tmpWriter.write(record.toString() + "\n");
+			}
+
+			for (JSONObject record : pending.values()) {
+				tmpWriter.write(record.toString() + "\n");
+			}
+		} catch (JSONException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			L.log("Outbox: " + e);
+			return;
+		}
+
+		try {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+		} catch (IOException e) {
+			L.log("Outbox: " + e);
+		}
+
+		if (tmp.renameTo(journal)) {
+			deliveredSinceCompact = 0;
+		}
+	}
+
+	private void removeExpiredDelivered() {
+		long expiry = System.currentTimeMillis() - DELIVERED_TTL_MS;
+		Iterator<Map.Entry<String, Long>> iterator = delivered.entrySet().iterator();
+
+		while (iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+
+			if (entry.getValue() >= expiry && delivered.size() <= MAX_DELIVERED) {
+				break;
+			}
+			iterator.remove();
+		}
+	}
+
+	private synchronized void load() {
+		if (!journal.exists()) {
+			return;
+		}
+
+		try (BufferedSource source = Okio.buffer(Okio.source(journal))) {
+			String line;
+
+			while ((line = source.readUtf8Line()) != null) {
+				try {
+					JSONObject record = new JSONObject(line);
+					String key = record.getString("key");
+
+					if ("add".equals(record.getString("op"))) {
+						if (!delivered.containsKey(key)) {
+							pending.put(key, record);
+						}
+					} else {
+						pending.remove(key);
+						delivered.remove(key);
+						delivered.put(key, record.optLong("time", System.currentTimeMillis()));
+					}
+				} catch (JSONException e) {
+					// A torn write at the end of the file, skip it
+				}
+			}
+		} catch (IOException e) {
+			L.log("Outbox: " + e);
+		}
+
+		compact();
+
+		if (!pending.isEmpty()) {
+			startWorker();
+		}
+	}
+
+	private void waitQuietly(long ms) {
+		try {
+			wait(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
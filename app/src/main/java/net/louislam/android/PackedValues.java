@@ -0,0 +1,232 @@
+package net.louislam.android;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary encoding of array and list values of LStorage.
+ * <p/>
+ * The first byte is the type. int[] and long[] are stored as zigzag varints of the delta to the previous item,
+ * so sorted ids and time series take 1 - 2 bytes per item. float[] is 4 bytes per item, List&lt;String&gt; is
+ * length-prefixed UTF-8. Decoding writes straight into the primitive array, without boxing.
+ * <p/>
+ * LogStorage keeps the bytes as they are. The SharedPreferences engine keeps them as LStorage.PACKED_PREFIX + Base64,
+ * or in a blob file of its own type, so a packed value is never confused with a String.
+ * Reading a value as the wrong type (an array as a String, a String or another array type as an array)
+ * throws ClassCastException on both engines.
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+class PackedValues {
+
+	private static final byte TYPE_INT_ARRAY = 1;
+	private static final byte TYPE_LONG_ARRAY = 2;
+	private static final byte TYPE_FLOAT_ARRAY = 3;
+	private static final byte TYPE_BYTE_ARRAY = 4;
+	private static final byte TYPE_STRING_LIST = 5;
+
+	static byte[] encode(int[] value) {
+		Writer out = new Writer(1 + 5 + value.length * 5);
+		out.data[out.pos++] = TYPE_INT_ARRAY;
+		out.writeVarint(value.length);
+
+		int previous = 0;
+
+		for (int item : value) {
+			int delta = item - previous;
+			out.writeVarint((delta << 1) ^ (delta >> 31));
+			previous = item;
+		}
+		return out.toByteArray();
+	}
+
+	static byte[] encode(long[] value) {
+		Writer out = new Writer(1 + 5 + value.length * 10);
+		out.data[out.pos++] = TYPE_LONG_ARRAY;
+		out.writeVarint(value.length);
+
+		long previous = 0;
+
+		for (long item : value) {
+			long delta = item - previous;
+			out.writeVarLong((delta << 1) ^ (delta >> 63));
+			previous = item;
+		}
+		return out.toByteArray();
+	}
+
+	static byte[] encode(float[] value) {
+		Writer out = new Writer(1 + 5 + value.length * 4);
+		out.data[out.pos++] = TYPE_FLOAT_ARRAY;
+		out.writeVarint(value.length);
+
+		for (float item : value) {
+			int bits = Float.floatToRawIntBits(item);
+			out.data[out.pos++] = (byte) (bits >>> 24);
+			out.data[out.pos++] = (byte) (bits >>> 16);
+			out.data[out.pos++] = (byte) (bits >>> 8);
+			out.data[out.pos++] = (byte) bits;
+		}
+		return out.toByteArray();
+	}
+
+	static byte[] encode(byte[] value) {
+		byte[] packed = new byte[1 + value.length];
+		packed[0] = TYPE_BYTE_ARRAY;
+		System.arraycopy(value, 0, packed, 1, value.length);
+		return packed;
+	}
+
+	static byte[] encode(List<String> value) {
+		var items = new byte[value.size()][];
+		int size = 1 + 5;
+
+		for (int i = 0; i < items.length; i++) {
+			items[i] = value.get(i).getBytes(LogStorage.UTF_8);
+			size += 5 + items[i].length;
+		}
+
+		Writer out = new Writer(size);
+		out.data[out.pos++] = TYPE_STRING_LIST;
+		out.writeVarint(items.length);
+
+		for (byte[] item : items) {
+			out.writeVarint(item.length);
+			System.arraycopy(item, 0, out.data, out.pos, item.length);
+			out.pos += item.length;
+		}
+		return out.toByteArray();
+	}
+
+	static int[] decodeIntArray(byte[] packed) {
+		Reader in = new Reader(packed, TYPE_INT_ARRAY);
+		int[] value = new int[in.readVarint()];
+		int previous = 0;
+
+		for (int i = 0; i < value.length; i++) {
+			int zigzag = in.readVarint();
+			previous += (zigzag >>> 1) ^ -(zigzag & 1);
+			value[i] = previous;
+		}
+		return value;
+	}
+
+	static long[] decodeLongArray(byte[] packed) {
+		Reader in = new Reader(packed, TYPE_LONG_ARRAY);
+		long[] value = new long[in.readVarint()];
+		long previous = 0;
+
+		for (int i = 0; i < value.length; i++) {
+			long zigzag = in.readVarLong();
+			previous += (zigzag >>> 1) ^ -(zigzag & 1);
+			value[i] = previous;
+		}
+		return value;
+	}
+
+	static float[] decodeFloatArray(byte[] packed) {
+		Reader in = new Reader(packed, TYPE_FLOAT_ARRAY);
+		float[] value = new float[in.readVarint()];
+		byte[] data = in.data;
+		int pos = in.pos;
+
+		for (int i = 0; i < value.length; i++) {
+			int bits = ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+					| ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+			value[i] = Float.intBitsToFloat(bits);
+			pos += 4;
+		}
+		return value;
+	}
+
+	static byte[] decodeByteArray(byte[] packed) {
+		new Reader(packed, TYPE_BYTE_ARRAY);
+		return Arrays.copyOfRange(packed, 1, packed.length);
+	}
+
+	static List<String> decodeStringList(byte[] packed) {
+		Reader in = new Reader(packed, TYPE_STRING_LIST);
+		int count = in.readVarint();
+		var value = new ArrayList<String>(count);
+
+		for (int i = 0; i < count; i++) {
+			int length = in.readVarint();
+			value.add(new String(in.data, in.pos, length, LogStorage.UTF_8));
+			in.pos += length;
+		}
+		return value;
+	}
+
+	private static class Writer {
+
+		final byte[] data;
+		int pos = 0;
+
+		Writer(int maxSize) {
+			data = new byte[maxSize];
+		}
+
+		void writeVarint(int value) {
+			while ((value & ~0x7F) != 0) {
+				data[pos++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			data[pos++] = (byte) value;
+		}
+
+		void writeVarLong(long value) {
+			while ((value & ~0x7FL) != 0) {
+				data[pos++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			data[pos++] = (byte) value;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(data, pos);
+		}
+
+	}
+
+	private static class Reader {
+
+		final byte[] data;
+		int pos = 1;
+
+		Reader(byte[] data, byte type) {
+			if (data.length == 0 || data[0] != type) {
+				throw new ClassCastException("The stored value is not of the requested type");
+			}
+			this.data = data;
+		}
+
+		int readVarint() {
+			int value = 0;
+
+			for (int shift = 0; ; shift += 7) {
+				byte b = data[pos++];
+				value |= (b & 0x7F) << shift;
+
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		long readVarLong() {
+			long value = 0;
+
+			for (int shift = 0; ; shift += 7) {
+				byte b = data[pos++];
+				value |= (long) (b & 0x7F) << shift;
+
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+	}
+
+}
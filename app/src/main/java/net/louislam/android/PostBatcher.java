@@ -0,0 +1,273 @@
+package net.louislam.android;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * PostBatcher - Collect small POST payloads (e.g. telemetry events) and send them in one request
+ * <p/>
+ * A batch is sent when maxCount events or maxBytes are reached, or maxDelay after the first event.
+ * <p/>
+ * Example Usage:
+ * PostBatcher batcher = new PostBatcher("https://example.com/collect")
+ * .maxCount(50)
+ * .maxDelay(30000)
+ * .encoder(BatchEncoder.JSON)
+ * .flushOnBackground(this);
+ * <p/>
+ * batcher.add(event);
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class PostBatcher {
+
+	private final String url;
+	private final ArrayDeque<Map<String, String>> queue = new ArrayDeque<>();
+	private final Timer timer = new Timer("L-batch", true);
+
+	private int maxCount = 50;
+	private long maxBytes = 64 * 1024;
+	private long maxDelayMs = 30000;
+	private int capacity = 1000;
+	private boolean gzip = false;
+	private BatchEncoder encoder = BatchEncoder.FORM;
+	private ResponseCallback callback;
+
+	private long queuedBytes = 0;
+	private TimerTask scheduledFlush;
+
+	public PostBatcher(String url) {
+		this.url = url;
+	}
+
+	public PostBatcher maxCount(int value) {
+		maxCount = value;
+		return this;
+	}
+
+	/**
+	 * @param value approximate size of keys and values, in bytes
+	 * @return this
+	 */
+	public PostBatcher maxBytes(long value) {
+		maxBytes = value;
+		return this;
+	}
+
+	/**
+	 * @param ms max time an event waits in the queue
+	 * @return this
+	 */
+	public PostBatcher maxDelay(long ms) {
+		maxDelayMs = ms;
+		return this;
+	}
+
+	/**
+	 * Max events kept in memory, the oldest events are dropped when it is full (e.g. offline)
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public PostBatcher capacity(int value) {
+		capacity = value;
+		return this;
+	}
+
+	public PostBatcher encoder(BatchEncoder value) {
+		encoder = value;
+		return this;
+	}
+
+	/**
+	 * Gzip the batch and send it with "Content-Encoding: gzip"
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public PostBatcher gzip(boolean value) {
+		gzip = value;
+		return this;
+	}
+
+	/**
+	 * Callback for each sent batch. A failed batch is retried, except on 4xx (other than 408 and 429) it is dropped.
+	 *
+	 * @param value
+	 * @return this
+	 */
+	public PostBatcher callback(ResponseCallback value) {
+		callback = value;
+		return this;
+	}
+
+	/**
+	 * Flush when the app goes to the background
+	 *
+	 * @param c
+	 * @return this
+	 */
+	public PostBatcher flushOnBackground(Context c) {
+		c.getApplicationContext().registerComponentCallbacks(new ComponentCallbacks2() {
+			@Override
+			public void onTrimMemory(int level) {
+				if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+					flush();
+				}
+			}
+
+			@Override
+			public void onConfigurationChanged(Configuration newConfig) {
+			}
+
+			@Override
+			public void onLowMemory() {
+				flush();
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Add an event to the queue
+	 *
+	 * @param event
+	 */
+	public void add(Map<String, String> event) {
+		boolean full;
+
+		synchronized (this) {
+			while (queue.size() >= capacity) {
+				queuedBytes -= sizeOf(queue.removeFirst());
+			}
+
+			queue.addLast(event);
+			queuedBytes += sizeOf(event);
+			full = queue.size() >= maxCount || queuedBytes >= maxBytes;
+
+			if (!full) {
+				scheduleFlush();
+			}
+		}
+
+		if (full) {
+			flush();
+		}
+	}
+
+	private synchronized void scheduleFlush() {
+		if (scheduledFlush != null) {
+			return;
+		}
+
+		scheduledFlush = new TimerTask() {
+			@Override
+			public void run() {
+				flush();
+			}
+		};
+		timer.schedule(scheduledFlush, maxDelayMs);
+	}
+
+	/**
+	 * Send all queued events now
+	 */
+	public void flush() {
+		while (true) {
+			List<Map<String, String>> batch = new ArrayList<>();
+
+			synchronized (this) {
+				if (scheduledFlush != null) {
+					scheduledFlush.cancel();
+					scheduledFlush = null;
+				}
+
+				while (!queue.isEmpty() && batch.size() < maxCount) {
+					var event = queue.removeFirst();
+					queuedBytes -= sizeOf(event);
+					batch.add(event);
+				}
+			}
+
+			if (batch.isEmpty()) {
+				return;
+			}
+
+			send(batch);
+		}
+	}
+
+	private void send(List<Map<String, String>> batch) {
+		RequestBody body;
+
+		try {
+			body = encoder.encode(batch);
+		} catch (IOException e) {
+			if (callback != null) {
+				callback.run(null, e);
+			}
+			return;
+		}
+
+		var builder = new Request.Builder().url(url);
+
+		if (gzip) {
+			builder.header("Content-Encoding", "gzip").post(new GzipRequestBody(body));
+		} else {
+			builder.post(body);
+		}
+
+		L.enqueue(builder.build(), (response, e) -> {
+			if (e != null || (!response.isSuccessful() && isRetryable(response.code()))) {
+				requeue(batch);
+			}
+
+			if (callback != null) {
+				callback.run(response, e);
+			}
+		}, false);
+	}
+
+	/**
+	 * A 4xx (except 408 and 429) would never succeed, the batch is dropped
+	 */
+	private static boolean isRetryable(int code) {
+		return code < 400 || code >= 500 || code == 408 || code == 429;
+	}
+
+	/**
+	 * Put a failed batch back to the front of the queue, it is retried after maxDelay
+	 */
+	private synchronized void requeue(List<Map<String, String>> batch) {
+		for (int i = batch.size() - 1; i >= 0 && queue.size() < capacity; i--) {
+			queue.addFirst(batch.get(i));
+			queuedBytes += sizeOf(batch.get(i));
+		}
+
+		if (!queue.isEmpty()) {
+			scheduleFlush();
+		}
+	}
+
+	private static long sizeOf(Map<String, String> event) {
+		long size = 0;
+
+		for (Map.Entry<String, String> entry : event.entrySet()) {
+			size += entry.getKey().length() + (entry.getValue() == null ? 0 : entry.getValue().length());
+		}
+		return size;
+	}
+
+}
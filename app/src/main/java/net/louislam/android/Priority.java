@@ -0,0 +1,14 @@
+package net.louislam.android;
+
+public enum Priority {
+	/**
+	 * The user is waiting for it
+	 */
+	USER_BLOCKING,
+	NORMAL,
+	/**
+	 * Background prefetch, started after the queued requests of higher priorities, and at most
+	 * priorityLimits prefetch (default 2) at once
+	 */
+	PREFETCH
+}
@@ -0,0 +1,10 @@
+package net.louislam.android;
+
+public interface ProgressCallback {
+
+	/**
+	 * @param bytes bytes done
+	 * @param total total bytes, -1 if unknown
+	 */
+	public void onProgress(long bytes, long total);
+}
@@ -0,0 +1,40 @@
+package net.louislam.android;
+
+/**
+ * Count bytes and call a ProgressCallback at most maxUpdatesPerSecond times per second
+ */
+class ProgressTracker {
+
+	private final ProgressCallback callback;
+	private final long intervalNanos;
+	private final long total;
+	private long bytes = 0;
+	private long lastUpdate = 0;
+
+	ProgressTracker(ProgressCallback callback, long total, int maxUpdatesPerSecond) {
+		this.callback = callback;
+		this.total = total;
+		this.intervalNanos = 1000000000L / Math.max(1, maxUpdatesPerSecond);
+	}
+
+	synchronized void add(long n) {
+		bytes += n;
+
+		long now = System.nanoTime();
+
+		if (callback != null && now - lastUpdate >= intervalNanos) {
+			lastUpdate = now;
+			callback.onProgress(bytes, total);
+		}
+	}
+
+	/**
+	 * Send the last update
+	 */
+	synchronized void finish() {
+		if (callback != null) {
+			callback.onProgress(bytes, total);
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+package net.louislam.android;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Identical in-flight GET requests share one network call.
+ * The body is read once and every callback gets its own in-memory copy.
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+class RequestCoalescer {
+
+	private final Map<HttpUrl, Group> groups = new HashMap<>();
+
+	private static class Group {
+		Call call;
+		final List<Waiter> waiters = new ArrayList<>();
+	}
+
+	private static class Waiter {
+		HttpTask task;
+		ResponseCallback callback;
+		boolean mainThread;
+	}
+
+	HttpTask enqueue(OkHttpClient client, Request request, ResponseCallback callback, boolean mainThread) {
+		HttpUrl url = request.url();
+		Group group;
+		Waiter waiter = new Waiter();
+		boolean leader;
+
+		synchronized (groups) {
+			group = groups.get(url);
+			leader = group == null;
+
+			if (leader) {
+				group = new Group();
+				group.call = client.newCall(request);
+				groups.put(url, group);
+			}
+
+			final Group g = group;
+			waiter.callback = callback;
+			waiter.mainThread = mainThread;
+			waiter.task = new HttpTask(group.call, () -> leave(url, g, waiter));
+			group.waiters.add(waiter);
+		}
+
+		if (leader) {
+			final Group g = group;
+
+			group.call.enqueue(new Callback() {
+				@Override
+				public void onFailure(@NotNull Call call, @NotNull IOException e) {
+					finish(url, g, null, e);
+				}
+
+				@Override
+				public void onResponse(@NotNull Call call, @NotNull Response response) {
+					finish(url, g, response, null);
+				}
+			});
+		}
+
+		return waiter.task;
+	}
+
+	/**
+	 * A waiter is cancelled, the call is cancelled only if nobody else is waiting for it
+	 */
+	private void leave(HttpUrl url, Group group, Waiter waiter) {
+		boolean cancelCall = false;
+
+		synchronized (groups) {
+			group.waiters.remove(waiter);
+
+			if (group.waiters.isEmpty() && groups.get(url) == group) {
+				groups.remove(url);
+				cancelCall = true;
+			}
+		}
+
+		if (cancelCall) {
+			group.call.cancel();
+		}
+	}
+
+	private void finish(HttpUrl url, Group group, Response response, Exception e) {
+		List<Waiter> waiters;
+
+		synchronized (groups) {
+			if (groups.get(url) == group) {
+				groups.remove(url);
+			}
+			waiters = new ArrayList<>(group.waiters);
+		}
+
+		byte[] bytes = null;
+		ResponseBody body = null;
+
+		if (response != null) {
+			body = response.body();
+
+			try {
+				if (body != null) {
+					bytes = body.bytes();
+				}
+			} catch (IOException ex) {
+				e = ex;
+			} finally {
+				response.close();
+			}
+		}
+
+		for (Waiter waiter : waiters) {
+			if (waiter.task.isCancelled()) {
+				continue;
+			}
+
+			Response copy = null;
+
+			if (e == null) {
+				copy = response.newBuilder()
+						.body(bytes == null ? null : ResponseBody.create(bytes, body.contentType()))
+						.build();
+			}
+
+			L.deliver(waiter.task, copy, e, waiter.callback, waiter.mainThread);
+		}
+	}
+
+}
@@ -0,0 +1,235 @@
+package net.louislam.android;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.Call;
+import okhttp3.Request;
+
+/**
+ * Start requests by priority, with a concurrency limit for each priority.
+ * In total, it never starts more than the dispatcher's maxRequests and maxRequestsPerHost, so the requests wait here
+ * in priority order instead of in the dispatcher's FIFO queue.
+ * Requests are tagged, so all requests of an Activity can be cancelled at once.
+ */
+class RequestScheduler {
+
+	private static class Entry {
+		Call call;
+		HttpTask task;
+		Priority priority;
+		String host;
+		Object tag;
+		ResponseCallback callback;
+		boolean mainThread;
+		boolean started = false;
+	}
+
+	private final Priority[] priorities = Priority.values();
+	private final ArrayDeque<Entry>[] queues;
+	private final int[] running = new int[priorities.length];
+	private final Map<String, Integer> runningPerHost = new HashMap<>();
+	private int runningTotal = 0;
+	private final Map<Object, Set<Entry>> tagged = new HashMap<>();
+	private final Set<Application> boundApplications = new HashSet<>();
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	RequestScheduler() {
+		queues = new ArrayDeque[priorities.length];
+
+		for (int i = 0; i < priorities.length; i++) {
+			queues[i] = new ArrayDeque<>();
+		}
+	}
+
+	HttpTask submit(Context tag, Priority priority, Request request, ResponseCallback callback, boolean mainThread) {
+		var entry = new Entry();
+		entry.call = L.getHttpClient().newCall(request);
+		entry.task = new HttpTask(entry.call, () -> cancel(entry));
+		entry.priority = priority;
+		entry.host = request.url().host();
+		entry.tag = tag;
+		entry.callback = callback;
+		entry.mainThread = mainThread;
+
+		if (tag instanceof Activity) {
+			bind(((Activity) tag).getApplication());
+		}
+
+		synchronized (this) {
+			queues[priority.ordinal()].addLast(entry);
+
+			if (tag != null) {
+				var set = tagged.get(tag);
+
+				if (set == null) {
+					set = new HashSet<>();
+					tagged.put(tag, set);
+				}
+				set.add(entry);
+			}
+		}
+
+		promote();
+		return entry.task;
+	}
+
+	/**
+	 * Start queued requests, higher priority first
+	 */
+	private void promote() {
+		var toStart = new ArrayList<Entry>();
+
+		synchronized (this) {
+			HttpConfig config = L.getHttpConfig();
+			int[] limits = config.priorityLimits;
+
+			for (int i = 0; i < priorities.length && runningTotal < config.maxRequests; i++) {
+				Iterator<Entry> iterator = queues[i].iterator();
+
+				while (running[i] < limits[i] && runningTotal < config.maxRequests && iterator.hasNext()) {
+					Entry entry = iterator.next();
+					int hostCount = hostCount(entry.host);
+
+					// The host is full, a request to another host may still start
+					if (hostCount >= config.maxRequestsPerHost) {
+						continue;
+					}
+
+					iterator.remove();
+					entry.started = true;
+					running[i]++;
+					runningTotal++;
+					runningPerHost.put(entry.host, hostCount + 1);
+					toStart.add(entry);
+				}
+			}
+		}
+
+		for (Entry entry : toStart) {
+			L.enqueue(entry.call, entry.task, entry.callback, entry.mainThread, () -> finish(entry));
+		}
+	}
+
+	private void finish(Entry entry) {
+		synchronized (this) {
+			running[entry.priority.ordinal()]--;
+			runningTotal--;
+
+			int hostCount = hostCount(entry.host) - 1;
+
+			if (hostCount > 0) {
+				runningPerHost.put(entry.host, hostCount);
+			} else {
+				runningPerHost.remove(entry.host);
+			}
+			untag(entry);
+		}
+		promote();
+	}
+
+	private int hostCount(String host) {
+		Integer count = runningPerHost.get(host);
+		return (count != null) ? count : 0;
+	}
+
+	private void cancel(Entry entry) {
+		boolean queued;
+
+		synchronized (this) {
+			queued = !entry.started && queues[entry.priority.ordinal()].remove(entry);
+
+			if (queued) {
+				untag(entry);
+			}
+		}
+
+		// A running call finishes with a failure, and finish() frees its slot
+		if (!queued) {
+			entry.call.cancel();
+		}
+	}
+
+	void cancelAll(Object tag) {
+		Set<Entry> entries;
+
+		synchronized (this) {
+			entries = tagged.remove(tag);
+		}
+
+		if (entries != null) {
+			for (Entry entry : entries) {
+				entry.task.cancel(true);
+			}
+		}
+	}
+
+	private void untag(Entry entry) {
+		if (entry.tag == null) {
+			return;
+		}
+
+		var set = tagged.get(entry.tag);
+
+		if (set != null) {
+			set.remove(entry);
+
+			if (set.isEmpty()) {
+				tagged.remove(entry.tag);
+			}
+		}
+	}
+
+	/**
+	 * Cancel the requests of an Activity when it is destroyed
+	 */
+	private void bind(Application application) {
+		synchronized (boundApplications) {
+			if (application == null || !boundApplications.add(application)) {
+				return;
+			}
+		}
+
+		application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+			@Override
+			public void onActivityDestroyed(Activity activity) {
+				cancelAll(activity);
+			}
+
+			@Override
+			public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+			}
+
+			@Override
+			public void onActivityStarted(Activity activity) {
+			}
+
+			@Override
+			public void onActivityResumed(Activity activity) {
+			}
+
+			@Override
+			public void onActivityPaused(Activity activity) {
+			}
+
+			@Override
+			public void onActivityStopped(Activity activity) {
+			}
+
+			@Override
+			public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+			}
+		});
+	}
+
+}
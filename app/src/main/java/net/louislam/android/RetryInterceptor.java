@@ -0,0 +1,257 @@
+package net.louislam.android;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Apply a RetryPolicy to GET and HEAD requests
+ */
+class RetryInterceptor implements Interceptor {
+
+	/**
+	 * Max hedged calls running at the same time, the others wait in the hedge dispatcher
+	 */
+	private static final int MAX_HEDGE_REQUESTS = 16;
+
+	/**
+	 * How often a waiting call checks if it is cancelled
+	 */
+	private static final long CANCEL_CHECK_MS = 500;
+
+	private static OkHttpClient hedgeBaseClient;
+	private static OkHttpClient hedgeClient;
+
+	private final RetryPolicy policy;
+
+	RetryInterceptor(RetryPolicy policy) {
+		this.policy = policy;
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		String method = request.method();
+
+		if (request.tag(RetryInterceptor.class) != null || !(method.equals("GET") || method.equals("HEAD"))) {
+			return chain.proceed(request);
+		}
+
+		long backoff = policy.initialBackoffMs;
+
+		for (int attempt = 1; ; attempt++) {
+			boolean last = attempt >= policy.maxAttempts;
+			Response response;
+
+			try {
+				response = (policy.hedgeAfterMs > 0) ? hedged(chain) : chain.proceed(request);
+			} catch (IOException e) {
+				if (last || chain.call().isCanceled()) {
+					throw e;
+				}
+				sleep(backoff);
+				backoff = Math.min(backoff * 2, policy.maxBackoffMs);
+				continue;
+			}
+
+			if (last || !policy.retryableCodes.contains(response.code())) {
+				return response;
+			}
+
+			long wait = Math.max(backoff, retryAfter(response));
+			response.close();
+			sleep(Math.min(wait, policy.maxBackoffMs));
+			backoff = Math.min(backoff * 2, policy.maxBackoffMs);
+		}
+	}
+
+	/**
+	 * Run the request, and run it again if there is no response after hedgeAfterMs.
+	 * The first response wins, the other call is cancelled.
+	 */
+	private Response hedged(Chain chain) throws IOException {
+		Request request = chain.request().newBuilder().tag(RetryInterceptor.class, this).build();
+		OkHttpClient client = getHedgeClient();
+		Hedge hedge = new Hedge();
+		List<Call> calls = new ArrayList<>();
+
+		start(client, request, calls, hedge);
+		long hedgeAt = System.currentTimeMillis() + policy.hedgeAfterMs;
+		int running = 1;
+		IOException error = null;
+		Call winner = null;
+
+		try {
+			while (running > 0) {
+				if (chain.call().isCanceled()) {
+					throw new IOException("Canceled");
+				}
+
+				long wait = CANCEL_CHECK_MS;
+
+				if (calls.size() == 1) {
+					wait = Math.min(wait, hedgeAt - System.currentTimeMillis());
+				}
+
+				Result result = (wait > 0) ? hedge.results.poll(wait, TimeUnit.MILLISECONDS) : null;
+
+				if (result == null) {
+					if (calls.size() == 1 && System.currentTimeMillis() >= hedgeAt) {
+						start(client, request, calls, hedge);
+						running++;
+					}
+					continue;
+				}
+
+				running--;
+
+				if (result.response != null) {
+					winner = result.call;
+					return result.response;
+				}
+
+				error = result.error;
+
+				if (calls.size() == 1) {
+					// The first call failed before the hedge delay, try the second one now
+					start(client, request, calls, hedge);
+					running++;
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted", e);
+		} finally {
+			hedge.settle();
+
+			for (Call call : calls) {
+				if (call != winner) {
+					call.cancel();
+				}
+			}
+		}
+
+		throw error;
+	}
+
+	/**
+	 * Hedged calls run in their own dispatcher, so they never wait for a slot held by their parent call.
+	 * It is bounded, and it shares the connection pool of the shared client.
+	 */
+	private static synchronized OkHttpClient getHedgeClient() {
+		OkHttpClient base = L.getHttpClient();
+
+		if (hedgeClient == null || hedgeBaseClient != base) {
+			var executor = new ThreadPoolExecutor(MAX_HEDGE_REQUESTS, MAX_HEDGE_REQUESTS, 60, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<>(), r -> {
+						var t = new Thread(r, "L-hedge");
+						t.setDaemon(true);
+						return t;
+					});
+			executor.allowCoreThreadTimeOut(true);
+
+			var dispatcher = new Dispatcher(executor);
+			dispatcher.setMaxRequests(MAX_HEDGE_REQUESTS);
+			dispatcher.setMaxRequestsPerHost(MAX_HEDGE_REQUESTS);
+
+			hedgeBaseClient = base;
+			hedgeClient = base.newBuilder().dispatcher(dispatcher).build();
+		}
+		return hedgeClient;
+	}
+
+	private static class Result {
+		Call call;
+		Response response;
+		IOException error;
+	}
+
+	/**
+	 * Results of the calls of one hedged request. After it is settled, a late response is closed instead of queued.
+	 */
+	private static class Hedge {
+		final BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+		boolean settled = false;
+
+		synchronized void add(Result result) {
+			if (!settled) {
+				results.add(result);
+			} else if (result.response != null) {
+				result.response.close();
+			}
+		}
+
+		synchronized void settle() {
+			settled = true;
+			Result result;
+
+			while ((result = results.poll()) != null) {
+				if (result.response != null) {
+					result.response.close();
+				}
+			}
+		}
+	}
+
+	private void start(OkHttpClient client, Request request, List<Call> calls, Hedge hedge) {
+		Call call = client.newCall(request);
+		calls.add(call);
+
+		call.enqueue(new Callback() {
+			@Override
+			public void onFailure(@NotNull Call call, @NotNull IOException e) {
+				var result = new Result();
+				result.call = call;
+				result.error = e;
+				hedge.add(result);
+			}
+
+			@Override
+			public void onResponse(@NotNull Call call, @NotNull Response response) {
+				var result = new Result();
+				result.call = call;
+				result.response = response;
+				hedge.add(result);
+			}
+		});
+	}
+
+	/**
+	 * @return Retry-After in ms, 0 if it is not a number of seconds
+	 */
+	private static long retryAfter(Response response) {
+		String value = response.header("Retry-After");
+
+		if (value == null) {
+			return 0;
+		}
+
+		try {
+			return Long.parseLong(value.trim()) * 1000;
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static void sleep(long ms) throws IOException {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted", e);
+		}
+	}
+
+}
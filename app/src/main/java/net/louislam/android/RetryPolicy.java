@@ -0,0 +1,73 @@
+package net.louislam.android;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * RetryPolicy - Retry and hedging of GET requests
+ * <p/>
+ * Only GET and HEAD requests are retried or hedged, because they are idempotent.
+ * <p/>
+ * Example Usage:
+ * L.setHttpConfig(new HttpConfig().retryPolicy(new RetryPolicy()
+ * .maxAttempts(3)
+ * .backoff(200, 5000)
+ * .hedgeAfter(300)));
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+public class RetryPolicy {
+
+	int maxAttempts = 3;
+	long initialBackoffMs = 200;
+	long maxBackoffMs = 5000;
+	long hedgeAfterMs = 0;
+	Set<Integer> retryableCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+
+	/**
+	 * @param value including the first attempt
+	 * @return this
+	 */
+	public RetryPolicy maxAttempts(int value) {
+		maxAttempts = value;
+		return this;
+	}
+
+	/**
+	 * The wait time is doubled after each attempt
+	 *
+	 * @param initialMs
+	 * @param maxMs
+	 * @return this
+	 */
+	public RetryPolicy backoff(long initialMs, long maxMs) {
+		initialBackoffMs = initialMs;
+		maxBackoffMs = maxMs;
+		return this;
+	}
+
+	/**
+	 * Status codes that are retried, default: 408, 429, 500, 502, 503, 504
+	 *
+	 * @param codes
+	 * @return this
+	 */
+	public RetryPolicy retryableCodes(Integer... codes) {
+		retryableCodes = new HashSet<>(Arrays.asList(codes));
+		return this;
+	}
+
+	/**
+	 * If there is no response after ms, send the same request again and use whichever returns first.
+	 * The other one is cancelled. 0 to disable (default).
+	 *
+	 * @param ms
+	 * @return this
+	 */
+	public RetryPolicy hedgeAfter(long ms) {
+		hedgeAfterMs = ms;
+		return this;
+	}
+
+}
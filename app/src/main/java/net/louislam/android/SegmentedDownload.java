@@ -0,0 +1,334 @@
+package net.louislam.android;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Download a file with HTTP Range requests in parallel segments.
+ * <p/>
+ * The progress is kept in a sidecar file "[target].segments", so an interrupted download resumes where it stopped.
+ * It only resumes if the server sends an ETag or Last-Modified, without one the changed file can't be detected.
+ * Falls back to a single stream if the server doesn't support ranges.
+ *
+ * @author Louis Lam (louis@louislam.net)
+ */
+class SegmentedDownload {
+
+	/**
+	 * Save the sidecar after this many bytes of a segment
+	 */
+	private static final long SAVE_INTERVAL = 1024 * 1024;
+
+	private final OkHttpClient client;
+	private final String url;
+	private final File target;
+	private final File sidecar;
+	private final List<Call> calls = new ArrayList<>();
+
+	private long total;
+	private String validator;
+	private long[] starts;
+	private long[] ends;
+	private long[] done;
+
+	SegmentedDownload(OkHttpClient client, String url, File target) {
+		this.client = client;
+		this.url = url;
+		this.target = target;
+		this.sidecar = new File(target.getPath() + ".segments");
+	}
+
+	File download(int segmentCount) throws IOException {
+		Request probe = new Request.Builder().url(url).header("Range", "bytes=0-0").build();
+		String lastModified;
+
+		try (Response response = client.newCall(probe).execute()) {
+			ResponseBody body = response.body();
+
+			if (!response.isSuccessful() || body == null) {
+				throw new IOException("Unexpected response: " + response.code());
+			}
+
+			total = parseTotal(response.header("Content-Range"));
+
+			if (response.code() != 206) {
+				// Range is not supported, the body is the whole file
+				sidecar.delete();
+				writeAll(body.source());
+				return target;
+			}
+
+			validator = response.header("ETag");
+			lastModified = response.header("Last-Modified", "");
+		}
+
+		if (total <= 0 || (validator != null && validator.startsWith("W/"))) {
+			// Unknown length, or a weak ETag which can't be used in If-Range
+			return downloadWhole();
+		}
+
+		if (validator == null) {
+			validator = lastModified;
+		}
+
+		if (validator.isEmpty()) {
+			// No validator to check a resume with, so no sidecar is kept and all segments start over
+			sidecar.delete();
+			split(segmentCount);
+		} else if (!loadSidecar()) {
+			split(segmentCount);
+			saveSidecar();
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+			if (file.length() != total) {
+				file.setLength(total);
+			}
+			downloadSegments(file.getChannel());
+		}
+
+		sidecar.delete();
+		return target;
+	}
+
+	private void downloadSegments(FileChannel channel) throws IOException {
+		var executor = Executors.newFixedThreadPool(starts.length);
+		var futures = new ArrayList<Future<?>>();
+
+		try {
+			for (int i = 0; i < starts.length; i++) {
+				final int index = i;
+
+				if (starts[i] + done[i] > ends[i]) {
+					continue;
+				}
+
+				futures.add(executor.submit(() -> {
+					downloadSegment(channel, index);
+					return null;
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			cancelAll();
+			throw new IOException("Download interrupted", e);
+		} catch (ExecutionException e) {
+			cancelAll();
+			Throwable cause = e.getCause();
+			throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+		} finally {
+			executor.shutdownNow();
+			saveSidecar();
+		}
+
+		channel.force(false);
+	}
+
+	private void downloadSegment(FileChannel channel, int index) throws IOException {
+		long from = starts[index] + done[index];
+
+		var builder = new Request.Builder()
+				.url(url)
+				.header("Range", "bytes=" + from + "-" + ends[index]);
+
+		if (!validator.isEmpty()) {
+			// The server returns 200 instead of 206 if the file is changed
+			builder.header("If-Range", validator);
+		}
+
+		Call call = client.newCall(builder.build());
+
+		synchronized (calls) {
+			calls.add(call);
+		}
+
+		try (Response response = call.execute()) {
+			ResponseBody body = response.body();
+
+			if (response.code() != 206 || body == null) {
+				// The file is changed on the server, the validator check starts over next time
+				throw new IOException("Server did not return the requested range: " + response.code());
+			}
+
+			BufferedSource source = body.source();
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			long position = from;
+			long unsaved = 0;
+
+			while (source.read(buffer) != -1) {
+				buffer.flip();
+				long written = 0;
+
+				while (buffer.hasRemaining()) {
+					written += channel.write(buffer, position + written);
+				}
+
+				buffer.clear();
+				position += written;
+				unsaved += written;
+
+				synchronized (this) {
+					done[index] += written;
+				}
+
+				if (unsaved >= SAVE_INTERVAL) {
+					saveSidecar();
+					unsaved = 0;
+				}
+			}
+		}
+	}
+
+	private void cancelAll() {
+		synchronized (calls) {
+			for (Call call : calls) {
+				call.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Download in a single stream without Range
+	 */
+	private File downloadWhole() throws IOException {
+		sidecar.delete();
+
+		try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+			ResponseBody body = response.body();
+
+			if (!response.isSuccessful() || body == null) {
+				throw new IOException("Unexpected response: " + response.code());
+			}
+			writeAll(body.source());
+		}
+		return target;
+	}
+
+	private void writeAll(BufferedSource source) throws IOException {
+		try (BufferedSink sink = Okio.buffer(Okio.sink(target))) {
+			sink.writeAll(source);
+		}
+	}
+
+	private void split(int segmentCount) {
+		int count = (int) Math.max(1, Math.min(segmentCount, total));
+		long size = total / count;
+
+		starts = new long[count];
+		ends = new long[count];
+		done = new long[count];
+
+		for (int i = 0; i < count; i++) {
+			starts[i] = i * size;
+			ends[i] = (i == count - 1) ? total - 1 : (i + 1) * size - 1;
+		}
+	}
+
+	/**
+	 * Sidecar format:
+	 * line 1: total length
+	 * line 2: ETag or Last-Modified
+	 * other lines: start end done
+	 */
+	private synchronized void saveSidecar() {
+		if (validator.isEmpty()) {
+			return;
+		}
+
+		File tmp = new File(sidecar.getPath() + ".tmp");
+
+		try (OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(tmp))) {
+			writer.write(total + "\n" + validator + "\n");
+
+			for (int i = 0; i < starts.length; i++) {
+				writer.write(starts[i] + " " + ends[i] + " " + done[i] + "\n");
+			}
+		} catch (IOException e) {
+			L.log(e.toString());
+			return;
+		}
+
+		if (!tmp.renameTo(sidecar)) {
+			tmp.delete();
+		}
+	}
+
+	private boolean loadSidecar() {
+		if (!sidecar.exists() || !target.exists()) {
+			return false;
+		}
+
+		try (BufferedSource source = Okio.buffer(Okio.source(sidecar))) {
+			if (Long.parseLong(source.readUtf8LineStrict()) != total
+					|| !validator.equals(source.readUtf8LineStrict())) {
+				return false;
+			}
+
+			var lines = new ArrayList<long[]>();
+			String line;
+
+			while ((line = source.readUtf8Line()) != null) {
+				String[] parts = line.split(" ");
+				lines.add(new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]) });
+			}
+
+			if (lines.isEmpty()) {
+				return false;
+			}
+
+			starts = new long[lines.size()];
+			ends = new long[lines.size()];
+			done = new long[lines.size()];
+
+			for (int i = 0; i < lines.size(); i++) {
+				starts[i] = lines.get(i)[0];
+				ends[i] = lines.get(i)[1];
+				done[i] = lines.get(i)[2];
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param contentRange e.g. "bytes 0-0/12345"
+	 * @return the total length, -1 if unknown
+	 */
+	private static long parseTotal(String contentRange) {
+		if (contentRange == null) {
+			return -1;
+		}
+
+		int slash = contentRange.lastIndexOf('/');
+
+		try {
+			return Long.parseLong(contentRange.substring(slash + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
@@ -0,0 +1,23 @@
+package net.louislam.android;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Storage engine of LStorage, opens a store by name.
+ * Set it by LStorage.setEngine() before the first use of LStorage, e.g. in Application.onCreate()
+ */
+public interface StorageEngine {
+
+	/**
+	 * Android SharedPreferences, one XML file per store (default)
+	 */
+	StorageEngine SHARED_PREFERENCES = (c, name) -> c.getSharedPreferences(name, 0);
+
+	/**
+	 * Append-only memory-mapped log, a change writes only the changed keys. See LogStorage
+	 */
+	StorageEngine LOG = LogStorage::open;
+
+	public SharedPreferences open(Context c, String name);
+}
@@ -0,0 +1,30 @@
+package net.louislam.android;
+
+import java.io.IOException;
+
+import okhttp3.Response;
+import okio.Buffer;
+
+public interface StreamCallback {
+
+	/**
+	 * Called for each chunk of the body, on a background thread.
+	 * The next chunk is not read until this returns.
+	 * Bytes left in the chunk are kept, and the next read is appended to them,
+	 * so read only complete records (e.g. up to chunk.indexOf('\n')) and leave the rest.
+	 *
+	 * @param chunk
+	 * @param end   true if the body is fully read, the chunk has the last bytes (it may be empty)
+	 * @return false to stop reading
+	 * @throws IOException
+	 */
+	public boolean onChunk(Buffer chunk, boolean end) throws IOException;
+
+	/**
+	 * Always called once, after the last chunk, on failure or on cancel
+	 *
+	 * @param response
+	 * @param e
+	 */
+	public void onDone(Response response, Exception e);
+}
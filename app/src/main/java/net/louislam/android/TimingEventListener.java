@@ -0,0 +1,164 @@
+package net.louislam.android;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Record HttpTiming of each call.
+ * The interceptor puts the HttpTiming into the request tag, so it can be read from the response.
+ */
+class TimingEventListener extends EventListener {
+
+	private static final Map<Call, HttpTiming> timings = Collections.synchronizedMap(new WeakHashMap<>());
+
+	static final EventListener.Factory FACTORY = call -> {
+		var timing = new HttpTiming();
+		timings.put(call, timing);
+		return new TimingEventListener(timing);
+	};
+
+	static final Interceptor INTERCEPTOR = chain -> {
+		HttpTiming timing = timings.get(chain.call());
+
+		if (timing == null) {
+			return chain.proceed(chain.request());
+		}
+		return chain.proceed(chain.request().newBuilder().tag(HttpTiming.class, timing).build());
+	};
+
+	private final HttpTiming timing;
+	private long callStart;
+	private long dnsStart;
+	private long connectStart;
+	private long tlsStart;
+	private long writeStart;
+	private long writeEnd;
+	private long bodyStart;
+
+	private TimingEventListener(HttpTiming timing) {
+		this.timing = timing;
+	}
+
+	private static long ms(long start) {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	@Override
+	public void callStart(@NotNull Call call) {
+		callStart = System.nanoTime();
+		timing.host = call.request().url().host();
+	}
+
+	@Override
+	public void dnsStart(@NotNull Call call, @NotNull String domainName) {
+		dnsStart = System.nanoTime();
+	}
+
+	@Override
+	public void dnsEnd(@NotNull Call call, @NotNull String domainName, @NotNull List<InetAddress> inetAddressList) {
+		timing.dnsMs = ms(dnsStart);
+	}
+
+	@Override
+	public void connectStart(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy) {
+		connectStart = System.nanoTime();
+		timing.connectionReused = false;
+	}
+
+	@Override
+	public void secureConnectStart(@NotNull Call call) {
+		tlsStart = System.nanoTime();
+	}
+
+	@Override
+	public void secureConnectEnd(@NotNull Call call, Handshake handshake) {
+		timing.tlsMs = ms(tlsStart);
+	}
+
+	@Override
+	public void connectEnd(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy, Protocol protocol) {
+		timing.connectMs = ms(connectStart);
+	}
+
+	@Override
+	public void connectFailed(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy, Protocol protocol, @NotNull IOException ioe) {
+		timing.connectMs = ms(connectStart);
+	}
+
+	@Override
+	public void connectionAcquired(@NotNull Call call, @NotNull Connection connection) {
+		timing.host = connection.route().address().url().host();
+	}
+
+	@Override
+	public void requestHeadersStart(@NotNull Call call) {
+		writeStart = System.nanoTime();
+	}
+
+	@Override
+	public void requestHeadersEnd(@NotNull Call call, @NotNull Request request) {
+		timing.bytesOut += request.headers().byteCount();
+		writeEnd = System.nanoTime();
+		timing.requestWriteMs = (writeEnd - writeStart) / 1000000;
+	}
+
+	@Override
+	public void requestBodyEnd(@NotNull Call call, long byteCount) {
+		timing.bytesOut += byteCount;
+		writeEnd = System.nanoTime();
+		timing.requestWriteMs = (writeEnd - writeStart) / 1000000;
+	}
+
+	@Override
+	public void responseHeadersStart(@NotNull Call call) {
+		timing.ttfbMs = ms(writeEnd);
+	}
+
+	@Override
+	public void responseHeadersEnd(@NotNull Call call, @NotNull Response response) {
+		timing.bytesIn += response.headers().byteCount();
+	}
+
+	@Override
+	public void responseBodyStart(@NotNull Call call) {
+		bodyStart = System.nanoTime();
+	}
+
+	@Override
+	public void responseBodyEnd(@NotNull Call call, long byteCount) {
+		timing.bytesIn += byteCount;
+		timing.bodyReadMs = ms(bodyStart);
+	}
+
+	@Override
+	public void callEnd(@NotNull Call call) {
+		timing.totalMs = ms(callStart);
+		timings.remove(call);
+		L.getHttpTimingStats().record(timing, false);
+	}
+
+	@Override
+	public void callFailed(@NotNull Call call, @NotNull IOException ioe) {
+		timing.totalMs = ms(callStart);
+		timings.remove(call);
+		L.getHttpTimingStats().record(timing, true);
+	}
+
+}
@@ -0,0 +1,5 @@
+package net.louislam.android;
+
+public interface TypedCallback<T> {
+	public void run(T result, Exception e);
+}